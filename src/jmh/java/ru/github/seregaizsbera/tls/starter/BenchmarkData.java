@@ -0,0 +1,19 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Доступ к сертификатам {@link TestData} для бенчмарков из других пакетов.
+ */
+public final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return сертификат *.stackexchange.com с большим количеством альтернативных имен
+     */
+    public static X509Certificate realCert() throws CertificateException {
+        return TestData.getInstance().realCert;
+    }
+}
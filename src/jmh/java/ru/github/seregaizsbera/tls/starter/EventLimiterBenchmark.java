@@ -0,0 +1,92 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EventLimiter#accept(String, String, long)} при заданном количестве различных ключей. История вмещает все ключи,
+ * время идет вперед на 1 мс за вызов, поэтому после первого прохода по ключам события отклоняются как повторы,
+ * а устаревшие записи удаляются колесом таймеров.
+ * <p>
+ * Параметр <code>implementation</code> позволяет сравнить текущую реализацию (clock-wheel) с прежней
+ * реализацией на {@link java.util.TreeMap} и {@link java.util.HashMap} (tree-map, {@link LegacyEventLimiter}).
+ * Память, которую занимает история, измеряет {@link EventLimiterFootprintBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventLimiterBenchmark {
+    static final long LIMIT_PERIOD_MS = 3_600_000L;
+    @Param({"1000", "100000", "1000000"})
+    public int keys;
+    @Param({"clock-wheel", "tree-map"})
+    public String implementation;
+    private String[] certIds;
+    private Limiter limiter;
+    private int index;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        certIds = certIds(keys);
+        limiter = create(implementation, keys);
+        timestamp = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public boolean accept() {
+        int i = index;
+        index = i + 1 == keys ? 0 : i + 1;
+        return limiter.accept(certIds[i], "EXPIRATION", timestamp++);
+    }
+
+    /**
+     * @param keys количество ключей
+     * @return идентификаторы сертификатов той же длины, что и отпечатки SHA-256 в шестнадцатеричном виде
+     */
+    static String[] certIds(int keys) {
+        var result = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            result[i] = String.format("%064x", i);
+        }
+        return result;
+    }
+
+    /**
+     * Создает ограничитель. Каждое значение параметра выполняется в отдельной JVM, поэтому вызов через интерфейс
+     * остается мономорфным.
+     *
+     * @param implementation clock-wheel или tree-map
+     * @param keys           количество ключей, которое должна вмещать история
+     * @return ограничитель
+     */
+    static Limiter create(String implementation, int keys) {
+        return switch (implementation) {
+            case "clock-wheel" -> new EventLimiter(LIMIT_PERIOD_MS, keys)::accept;
+            case "tree-map" -> new LegacyEventLimiter(LIMIT_PERIOD_MS)::accept;
+            default -> throw new IllegalArgumentException(implementation);
+        };
+    }
+
+    /**
+     * Общий интерфейс текущей и прежней реализаций ограничителя
+     */
+    @FunctionalInterface
+    interface Limiter {
+        boolean accept(String key1, String key2, long timestamp);
+    }
+}
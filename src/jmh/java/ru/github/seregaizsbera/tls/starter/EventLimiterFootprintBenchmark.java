@@ -0,0 +1,92 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Память, которую удерживает история {@link EventLimiter}, заполненная заданным количеством различных ключей,
+ * в сравнении с прежней реализацией ({@link LegacyEventLimiter}). Профилировщик GC показывает только скорость
+ * выделения памяти, поэтому занятая память измеряется отдельно: разница занятой кучи после полной сборки мусора
+ * до создания ограничителя и после его заполнения. Идентификаторы сертификатов создаются заранее и в результат
+ * не входят. Результат выводится во вспомогательных счетчиках <code>retainedBytes</code> и <code>bytesPerKey</code>,
+ * время выполнения итерации - это время заполнения истории. JMH суммирует такие счетчики по итерациям,
+ * поэтому измеряется одна итерация.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventLimiterFootprintBenchmark {
+    /**
+     * Количество сборок мусора подряд, после которого занятая память считается установившейся
+     */
+    private static final int GC_ROUNDS = 5;
+    /**
+     * История из меньшего количества ключей занимает меньше, чем погрешность измерения занятой кучи
+     */
+    @Param({"100000", "1000000"})
+    public int keys;
+    @Param({"clock-wheel", "tree-map"})
+    public String implementation;
+    private String[] certIds;
+
+    @Setup
+    public void setUp() {
+        certIds = EventLimiterBenchmark.certIds(keys);
+    }
+
+    @Benchmark
+    public void fill(Footprint footprint) {
+        long before = usedHeap();
+        var limiter = EventLimiterBenchmark.create(implementation, keys);
+        long timestamp = System.currentTimeMillis();
+        for (String certId : certIds) {
+            limiter.accept(certId, "EXPIRATION", timestamp++);
+        }
+        long after = usedHeap();
+        // Ограничитель должен оставаться достижимым до последнего измерения
+        Reference.reachabilityFence(limiter);
+        footprint.retainedBytes = after - before;
+        footprint.bytesPerKey = (double) (after - before) / keys;
+    }
+
+    private static long usedHeap() {
+        var memory = ManagementFactory.getMemoryMXBean();
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            long used = memory.getHeapMemoryUsage().getUsed();
+            if (used >= result) {
+                break;
+            }
+            result = used;
+        }
+        return result;
+    }
+
+    /**
+     * Вспомогательные счетчики с результатом измерения
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long retainedBytes;
+        public double bytesPerKey;
+    }
+}
@@ -0,0 +1,53 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Получение цепочки сертификатов из стандартного менеджера ключей SunJSSE и через обертку.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyManagerBenchmark {
+    private static final String ALIAS = "server";
+    private X509ExtendedKeyManager raw;
+    private X509ExtendedKeyManager wrapped;
+
+    @Setup
+    public void setUp() throws Exception {
+        var password = "1111".toCharArray();
+        var ks = TestData.generateKeyStore(ALIAS, "localhost", 365, password);
+        var factory = KeyManagerFactory.getInstance("SunX509", "SunJSSE");
+        factory.init(ks, password);
+        raw = (X509ExtendedKeyManager) factory.getKeyManagers()[0];
+        wrapped = (X509ExtendedKeyManager) OmniX509ExtendedKeyManager.wrap(raw, new NullNotifier(), new OmniTlsStarterSettings());
+    }
+
+    @Benchmark
+    public X509Certificate[] raw() {
+        return raw.getCertificateChain(ALIAS);
+    }
+
+    @Benchmark
+    public X509Certificate[] wrapped() {
+        return wrapped.getCertificateChain(ALIAS);
+    }
+}
@@ -0,0 +1,145 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Kind;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OmniSecurityNotifierImpl#notify(OmniX509EventModel)} при одновременной отправке событий из нескольких потоков.
+ * <p>
+ * Бенчмарки threadsN воспроизводят массовые рукопожатия с сертификатом, срок действия которого подходит к концу.
+ * После первого события остальные отбрасываются как повторы, поэтому измеряется путь производителя без блокировок
+ * через {@link EventCoalescer}.
+ * <p>
+ * Группа distinct воспроизводит поток различных ошибок проверки: каждый поток перебирает свой набор подробностей
+ * ошибки и сертификатов, ключей больше, чем вмещает {@link EventCoalescer}, поэтому почти каждое событие доходит
+ * до {@link EventRingBuffer#offer(Object)}. Один поток группы разбирает очередь, как планировщик, но без паузы,
+ * поэтому события то принимаются, то отбрасываются при переполнении очереди. События имеют уровень TRACE
+ * и не выводятся в лог.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotifierBenchmark {
+    /**
+     * Количество различных событий каждого потока группы distinct
+     */
+    private static final int DISTINCT_EVENTS = 4096;
+    /**
+     * Количество сертификатов, которые перебирает каждый поток группы distinct
+     */
+    private static final int DISTINCT_CERTIFICATES = 4;
+    private OmniSecurityNotifierImpl notifier;
+    private OmniX509EventModel[] events;
+    private X509Certificate[] certificates;
+
+    @Setup
+    public void setUp() throws Exception {
+        notifier = OmniSecurityNotifierImpl.getInstance();
+        var cert = TestData.getInstance().realCert;
+        var sides = Side.values();
+        events = new OmniX509EventModel[sides.length];
+        for (int i = 0; i < sides.length; i++) {
+            events[i] = new OmniX509EventModel(Level.WARN, Kind.EXPIRATION, sides[i], cert, 10L,
+                    OmniConnectionInfo.NONE, null, event -> "");
+        }
+        certificates = new X509Certificate[DISTINCT_CERTIFICATES];
+        certificates[0] = cert;
+        for (int i = 1; i < DISTINCT_CERTIFICATES; i++) {
+            var ks = TestData.generateKeyStore("cert", "distinct-" + i, 365, "changeit".toCharArray());
+            certificates[i] = TestData.certificate(ks, "cert");
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean threads1() {
+        return notifyNext();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean threads4() {
+        return notifyNext();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean threads16() {
+        return notifyNext();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean threads64() {
+        return notifyNext();
+    }
+
+    @Benchmark
+    @Group("distinct")
+    @GroupThreads(4)
+    public boolean distinctProducers(DistinctEvents distinctEvents) {
+        return notifier.notify(distinctEvents.next());
+    }
+
+    @Benchmark
+    @Group("distinct")
+    @GroupThreads(1)
+    public int distinctConsumer() {
+        return notifier.drain(Integer.MAX_VALUE);
+    }
+
+    private boolean notifyNext() {
+        var event = events[(int) (Thread.currentThread().getId() % events.length)];
+        return notifier.notify(event);
+    }
+
+    /**
+     * Различные события одного потока группы distinct: подробности ошибки уникальны для потока,
+     * сертификаты перебираются по кругу
+     */
+    @State(Scope.Thread)
+    public static class DistinctEvents {
+        private OmniX509EventModel[] events;
+        private int index;
+
+        @Setup
+        public void setUp(NotifierBenchmark benchmark, ThreadParams threadParams) {
+            events = new OmniX509EventModel[DISTINCT_EVENTS];
+            var certificates = benchmark.certificates;
+            for (int i = 0; i < DISTINCT_EVENTS; i++) {
+                var detail = "Thread " + threadParams.getThreadIndex() + " failure " + i;
+                events[i] = new OmniX509EventModel(Level.TRACE, Kind.TRUST_FAILURE, Side.SERVER, certificates[i % certificates.length],
+                        0L, OmniConnectionInfo.NONE, detail, event -> "");
+            }
+        }
+
+        OmniX509EventModel next() {
+            int i = index;
+            index = i + 1 == events.length ? 0 : i + 1;
+            return events[i];
+        }
+    }
+}
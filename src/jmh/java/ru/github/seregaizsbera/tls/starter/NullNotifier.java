@@ -0,0 +1,18 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+
+/**
+ * Принимает и отбрасывает все события, чтобы бенчмарк измерял только проверки.
+ */
+final class NullNotifier implements OmniSecurityNotifier {
+    @Override
+    public boolean notify(OmniX509EventModel event) {
+        return true;
+    }
+
+    @Override
+    public boolean isFull() {
+        return false;
+    }
+}
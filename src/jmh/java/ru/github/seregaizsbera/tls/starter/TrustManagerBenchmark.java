@@ -0,0 +1,60 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка цепочки сервера стандартным менеджером доверия SunJSSE и его оберткой.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrustManagerBenchmark {
+    private static final String AUTH_TYPE = "RSA";
+    @Param({"false", "true"})
+    public boolean verifiedChainCache;
+    private X509ExtendedTrustManager raw;
+    private X509ExtendedTrustManager wrapped;
+    private X509Certificate[] chain;
+
+    @Setup
+    public void setUp() throws Exception {
+        var ks = TestData.generateKeyStore("server", "localhost", 365, "1111".toCharArray());
+        chain = new X509Certificate[]{TestData.certificate(ks, "server")};
+        var factory = TrustManagerFactory.getInstance("PKIX", "SunJSSE");
+        factory.init(ks);
+        raw = (X509ExtendedTrustManager) factory.getTrustManagers()[0];
+        var settings = new OmniTlsStarterSettings();
+        settings.setVerifiedChainCache(verifiedChainCache);
+        wrapped = (X509ExtendedTrustManager) OmniX509ExtendedTrustManager.wrap(raw, new NullNotifier(), settings);
+    }
+
+    @Benchmark
+    public void raw() throws CertificateException {
+        raw.checkServerTrusted(chain, AUTH_TYPE);
+    }
+
+    @Benchmark
+    public void wrapped() throws CertificateException {
+        wrapped.checkServerTrusted(chain, AUTH_TYPE);
+    }
+}
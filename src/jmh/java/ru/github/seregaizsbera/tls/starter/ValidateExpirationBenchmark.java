@@ -0,0 +1,53 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка сроков действия цепочки. Сертификат со сроком действия год не порождает событий,
+ * истекший сертификат из {@link TestData} порождает событие при каждой проверке.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidateExpirationBenchmark {
+    @Param({"valid", "expired"})
+    public String certificate;
+    private final OmniTlsStarterSettings settings = new OmniTlsStarterSettings();
+    private final OmniSecurityNotifier notifier = new NullNotifier();
+    private X509Certificate[] chain;
+
+    @Setup
+    public void setUp() throws Exception {
+        X509Certificate cert;
+        if (certificate.equals("valid")) {
+            cert = TestData.certificate(TestData.generateKeyStore("server", "localhost", 365, "1111".toCharArray()), "server");
+        } else {
+            cert = TestData.getInstance().realCert;
+        }
+        chain = new X509Certificate[]{cert};
+    }
+
+    @Benchmark
+    public void validateExpiration() {
+        OmniX509Commons.validateExpiration(Side.SERVER, chain, settings, notifier, OmniConnectionInfo.NONE);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.github.seregaizsbera.tls.starter.models;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.github.seregaizsbera.tls.starter.BenchmarkData;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Извлечение альтернативных имен субъекта из сертификата с большим количеством имен.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CertificateModelBenchmark {
+    private X509Certificate cert;
+
+    @Setup
+    public void setUp() throws Exception {
+        cert = BenchmarkData.realCert();
+    }
+
+    @Benchmark
+    public String extractSAN() {
+        return OmniX509CertificateModel.extractSAN(cert);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Потокобезопасный кэш с ограничением на количество элементов. При достижении предельного размера
+ * удаляется примерно восьмая часть произвольных элементов, поэтому кэш подходит только для данных,
+ * которые можно в любой момент вычислить заново.
+ *
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+final class BoundedCache<K, V> {
+    private final ConcurrentHashMap<K, V> map;
+    private final int capacity;
+
+    /**
+     * Конструктор
+     *
+     * @param capacity максимальное количество элементов в кэше
+     */
+    BoundedCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity должен быть положительным: " + capacity);
+        }
+        this.capacity = capacity;
+        this.map = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Возвращает значение, сохраненное для ключа.
+     *
+     * @param key ключ
+     * @return значение или <code>null</code>, если значение отсутствует
+     */
+    V get(K key) {
+        return map.get(key);
+    }
+
+    /**
+     * Сохраняет значение. Если кэш заполнен, предварительно освобождает место.
+     *
+     * @param key ключ
+     * @param value значение
+     */
+    void put(K key, V value) {
+        if (map.size() >= capacity && !map.containsKey(key)) {
+            evict();
+        }
+        map.put(key, value);
+    }
+
+    /**
+     * Удаляет значение, сохраненное для ключа.
+     *
+     * @param key ключ
+     */
+    void remove(K key) {
+        map.remove(key);
+    }
+
+    /**
+     * Удаляет все значения.
+     */
+    void clear() {
+        map.clear();
+    }
+
+    /**
+     * @return текущее количество элементов
+     */
+    int size() {
+        return map.size();
+    }
+
+    private void evict() {
+        int toRemove = Math.max(1, capacity / 8);
+        var iterator = map.keySet().iterator();
+        while (toRemove > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            toRemove--;
+        }
+    }
+}
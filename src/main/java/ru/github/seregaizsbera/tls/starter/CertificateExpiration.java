@@ -0,0 +1,152 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * Заранее вычисленные моменты времени, в которые сертификат пересекает пороговые значения
+ * {@link OmniTlsStarterSettings}. Вычисляется один раз для сертификата и снимка пороговых значений,
+ * после чего проверка срока действия сводится к сравнению текущего времени с числом.
+ */
+final class CertificateExpiration {
+    private static final long SECONDS_PER_DAY = 86_400L;
+    private static final long MILLIS_PER_DAY = SECONDS_PER_DAY * 1000L;
+    /**
+     * Пороговые значения, для которых вычислены моменты времени
+     */
+    private final OmniTlsStarterSettings.Thresholds thresholds;
+    /**
+     * Окончание срока действия сертификата Unixtime millis
+     */
+    private final long notAfter;
+    /**
+     * Начиная с этого момента выводятся сообщения уровня INFO
+     */
+    private final long infoFrom;
+    /**
+     * Начиная с этого момента выводятся сообщения уровня WARN
+     */
+    private final long warningFrom;
+    /**
+     * Начиная с этого момента выводятся сообщения уровня ERROR
+     */
+    private final long errorFrom;
+
+    /**
+     * Конструктор
+     *
+     * @param notAfter   окончание срока действия сертификата Unixtime millis
+     * @param thresholds пороговые значения
+     */
+    CertificateExpiration(long notAfter, OmniTlsStarterSettings.Thresholds thresholds) {
+        this.thresholds = thresholds;
+        this.notAfter = notAfter;
+        this.infoFrom = crossing(notAfter, thresholds.infoLevelDays());
+        this.warningFrom = crossing(notAfter, thresholds.warningLevelDays());
+        this.errorFrom = crossing(notAfter, thresholds.errorLevelDays());
+    }
+
+    /**
+     * Создает объект для сертификата.
+     *
+     * @param cert       сертификат
+     * @param thresholds пороговые значения
+     * @return моменты пересечения пороговых значений
+     */
+    static CertificateExpiration of(X509Certificate cert, OmniTlsStarterSettings.Thresholds thresholds) {
+        return new CertificateExpiration(cert.getNotAfter().getTime(), thresholds);
+    }
+
+    /**
+     * @param thresholds текущие пороговые значения
+     * @return <code>true</code>, если объект вычислен для указанных пороговых значений
+     */
+    boolean isComputedFor(OmniTlsStarterSettings.Thresholds thresholds) {
+        return this.thresholds == thresholds;
+    }
+
+    /**
+     * @param now текущее время Unixtime millis
+     * @return <code>true</code>, если до истечения срока действия осталось меньше дней, чем порог уровня INFO
+     */
+    boolean isBelowThreshold(long now) {
+        return now >= infoFrom;
+    }
+
+    /**
+     * Возвращает уровень серьезности события. Результат имеет смысл, если {@link #isBelowThreshold(long)}.
+     *
+     * @param now текущее время Unixtime millis
+     * @return уровень серьезности события
+     */
+    Level level(long now) {
+        if (now >= errorFrom) {
+            return Level.ERROR;
+        } else if (now >= warningFrom) {
+            return Level.WARN;
+        } else {
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * Вычисляет момент, когда результат проверки сертификата может измениться: пересечение порога уровня INFO,
+     * а если порог уже пройден, то уменьшение количества дней до истечения срока действия.
+     *
+     * @param now текущее время Unixtime millis
+     * @return момент изменения результата проверки Unixtime millis, больший now
+     */
+    long nextChange(long now) {
+        if (now < infoFrom) {
+            return infoFrom;
+        }
+        return crossing(notAfter, days(now));
+    }
+
+    /**
+     * Вычисляет ближайший после now момент, когда сертификат пересекает порог уровня INFO, WARN или ERROR
+     * или истекает.
+     *
+     * @param now текущее время Unixtime millis
+     * @return момент пересечения Unixtime millis или {@link Long#MAX_VALUE}, если все пороги уже пройдены
+     */
+    long nextThreshold(long now) {
+        long result = Long.MAX_VALUE;
+        // Пороги могут быть заданы не по убыванию, поэтому выбирается наименьший из будущих моментов
+        for (long crossing : new long[]{infoFrom, warningFrom, errorFrom, notAfter + 1L}) {
+            if (crossing > now) {
+                result = Math.min(result, crossing);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Вычисляет количество полных дней до истечения срока действия с тем же округлением,
+     * что и {@link java.time.Duration#toDays()}: секунды вниз, дни к нулю.
+     *
+     * @param now текущее время Unixtime millis
+     * @return количество дней, отрицательное, если срок уже истек
+     */
+    long days(long now) {
+        return Math.floorDiv(notAfter - now, 1000L) / SECONDS_PER_DAY;
+    }
+
+    /**
+     * Вычисляет первый момент времени, когда {@link #days(long)} станет меньше заданного количества дней.
+     *
+     * @param notAfter окончание срока действия Unixtime millis
+     * @param days     пороговое значение в днях
+     * @return момент пересечения Unixtime millis
+     */
+    static long crossing(long notAfter, long days) {
+        if (days >= 1) {
+            // Количество дней меньше days, когда до окончания осталось меньше days суток
+            return notAfter - days * MILLIS_PER_DAY + 1L;
+        }
+        // Для истекших сертификатов дни округляются к нулю, поэтому порог сдвигается на сутки и секунду
+        return notAfter - (days - 1) * MILLIS_PER_DAY - 999L;
+    }
+}
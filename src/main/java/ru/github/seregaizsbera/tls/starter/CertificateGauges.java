@@ -0,0 +1,199 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import ru.github.seregaizsbera.tls.starter.models.OmniX509CertificateModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Набор проверенных сертификатов, для которых публикуются метрики "секунд до окончания срока действия".
+ * <p>
+ * Количество сертификатов ограничено, чтобы большое количество клиентов mTLS не порождало неограниченное
+ * количество метрик. При достижении предела удаляется сертификат, который дольше всех не встречался в проверках.
+ * Повторная встреча известного сертификата не требует блокировки: обновляется только момент последней встречи.
+ * <p>
+ * Доверенные сертификаты хранилищ ({@link Side#TRUST_STORE}) не учитываются: их тысячи, и они вытесняли бы
+ * сертификаты, которые действительно используются в соединениях.
+ */
+final class CertificateGauges {
+    /**
+     * Количество символов отпечатка в метке метрики
+     */
+    static final int FINGERPRINT_PREFIX_LENGTH = 16;
+    /**
+     * Момент последней встречи обновляется не чаще, чем с этим интервалом, чтобы не менять общие данные при каждом рукопожатии
+     */
+    private static final long TOUCH_INTERVAL_MS = 1000L;
+    private final int capacity;
+    private final Listener listener;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Конструктор
+     *
+     * @param capacity максимальное количество сертификатов
+     * @param listener получатель уведомлений о добавлении и удалении сертификатов
+     */
+    CertificateGauges(int capacity, Listener listener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity должен быть положительным: " + capacity);
+        }
+        this.capacity = capacity;
+        this.listener = listener;
+    }
+
+    /**
+     * Отмечает встречу сертификата в проверке.
+     *
+     * @param cert сертификат
+     * @param side сторона соединения
+     * @param now  текущее время Unixtime millis
+     */
+    void observe(X509Certificate cert, Side side, long now) {
+        if (side == Side.TRUST_STORE) {
+            return;
+        }
+        var key = new Key(OmniX509CertificateModel.of(cert).getFingerprint(), side);
+        var entry = entries.get(key);
+        if (entry == null) {
+            add(key, cert, now);
+        } else if (now - entry.lastSeen >= TOUCH_INTERVAL_MS) {
+            entry.lastSeen = now;
+        }
+    }
+
+    private synchronized void add(Key key, X509Certificate cert, long now) {
+        if (entries.containsKey(key)) {
+            return;
+        }
+        if (entries.size() >= capacity) {
+            evictLeastRecentlySeen();
+        }
+        var model = OmniX509CertificateModel.of(cert);
+        var fingerprint = key.fingerprint();
+        var entry = new Entry(fingerprint.substring(0, Math.min(FINGERPRINT_PREFIX_LENGTH, fingerprint.length())),
+                commonName(model.getSubject()), side(key.side()), cert.getNotAfter().getTime(), now);
+        entries.put(key, entry);
+        listener.added(entry);
+    }
+
+    /**
+     * Удаление выполняется только при появлении нового сертификата в заполненном наборе,
+     * поэтому полный просмотр допустим.
+     */
+    private void evictLeastRecentlySeen() {
+        Key oldest = null;
+        long oldestSeen = Long.MAX_VALUE;
+        for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+            if (candidate.getValue().lastSeen < oldestSeen) {
+                oldestSeen = candidate.getValue().lastSeen;
+                oldest = candidate.getKey();
+            }
+        }
+        if (oldest != null) {
+            listener.removed(entries.remove(oldest));
+        }
+    }
+
+    /**
+     * Передает все сертификаты набора получателю. Сертификаты не добавляются и не удаляются во время вызова.
+     *
+     * @param action получатель
+     */
+    synchronized void forEach(Consumer<Entry> action) {
+        entries.values().forEach(action);
+    }
+
+    /**
+     * @return количество сертификатов
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private static String side(Side side) {
+        return switch (side) {
+            case SERVER -> "server";
+            case CLIENT -> "client";
+            case KEY_MANAGER -> "key-manager";
+            case TRUST_STORE -> "trust-store";
+        };
+    }
+
+    /**
+     * Извлекает CN из имени субъекта. Если CN нет, возвращает имя целиком.
+     */
+    static String commonName(String subject) {
+        try {
+            for (Rdn rdn : new LdapName(subject).getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    return String.valueOf(rdn.getValue());
+                }
+            }
+        } catch (InvalidNameException | IllegalArgumentException e) {
+            // Используется имя целиком
+        }
+        return subject;
+    }
+
+    private record Key(String fingerprint, Side side) {}
+
+    /**
+     * Сертификат в наборе
+     */
+    static final class Entry {
+        private final String fingerprint;
+        private final String commonName;
+        private final String side;
+        private final long notAfter;
+        /**
+         * Момент последней встречи Unixtime millis
+         */
+        private volatile long lastSeen;
+
+        Entry(String fingerprint, String commonName, String side, long notAfter, long lastSeen) {
+            this.fingerprint = fingerprint;
+            this.commonName = commonName;
+            this.side = side;
+            this.notAfter = notAfter;
+            this.lastSeen = lastSeen;
+        }
+
+        /**
+         * @return начало отпечатка SHA-256
+         */
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        String getCommonName() {
+            return commonName;
+        }
+
+        String getSide() {
+            return side;
+        }
+
+        /**
+         * @return количество секунд до окончания срока действия, отрицательное, если срок уже истек
+         */
+        double secondsUntilNotAfter() {
+            return (notAfter - System.currentTimeMillis()) / 1000.0;
+        }
+    }
+
+    /**
+     * Получатель уведомлений об изменении набора. Вызывается под блокировкой набора.
+     */
+    interface Listener {
+        void added(Entry entry);
+
+        void removed(Entry entry);
+    }
+}
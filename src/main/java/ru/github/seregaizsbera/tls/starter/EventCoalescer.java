@@ -0,0 +1,227 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Склеивает повторяющиеся события в потоке, который их порождает, до постановки в очередь.
+ * <p>
+ * Для каждого ключа события запоминается начало периода, в течение которого повторы не пропускаются
+ * в очередь, а только подсчитываются. Когда период закрывается, количество повторов и несколько соединений,
+ * в которых они возникли, передаются получателю итоговым событием, см. {@link OmniX509EventModel#withOccurrences(long, List)}.
+ * Период закрывается при вызове {@link #flush(long)}, при появлении события с тем же ключом после окончания периода
+ * или при вытеснении записи. Таблица разбита на независимые секции с собственными блокировками,
+ * поэтому потоки, порождающие события для разных сертификатов, практически не конкурируют.
+ * Размер таблицы фиксирован. При нехватке места вытесняется самая старая запись секции, поэтому
+ * повтор изредка может попасть в очередь, где его отбросит {@link EventLimiter}.
+ */
+final class EventCoalescer {
+    private static final int STRIPES = 16;
+    private static final int SLOTS_PER_STRIPE = 16;
+    /**
+     * Количество соединений, запоминаемых для повторов одного события
+     */
+    private static final int PEER_SAMPLE_SIZE = 3;
+    private final Stripe[] stripes;
+    private final long windowMs;
+    private final Consumer<OmniX509EventModel> summaries;
+
+    /**
+     * Конструктор
+     *
+     * @param windowMs  период, в течение которого повторы события не пропускаются
+     * @param summaries получатель итоговых событий о повторах за закрывшиеся периоды.
+     *                  Вызывается под блокировкой секции, поэтому не должен блокироваться сам
+     */
+    EventCoalescer(long windowMs, Consumer<OmniX509EventModel> summaries) {
+        this.windowMs = windowMs;
+        this.summaries = summaries;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Проверяет, является ли событие первым в своем периоде. Повтор учитывается в счетчике повторов.
+     *
+     * @param key       ключ события, см. {@link #keyOf(OmniX509EventModel)}
+     * @param timestamp время события
+     * @param event     событие
+     * @return <code>true</code>, если событие нужно поставить в очередь, <code>false</code>, если это повтор
+     */
+    boolean acquire(long key, long timestamp, OmniX509EventModel event) {
+        return stripeOf(key).acquire(key, timestamp, event, this);
+    }
+
+    /**
+     * Отменяет результат {@link #acquire(long, long, OmniX509EventModel)}, например, если событие не удалось поставить в очередь.
+     * Следующее событие с тем же ключом снова будет считаться первым.
+     *
+     * @param key ключ события
+     */
+    void release(long key) {
+        stripeOf(key).release(key);
+    }
+
+    /**
+     * Закрывает периоды, истекшие к указанному моменту, и передает получателю итоговые события о повторах.
+     * Записи закрытых периодов освобождаются.
+     *
+     * @param now текущее время
+     * @return количество итоговых событий
+     */
+    int flush(long now) {
+        int result = 0;
+        for (var stripe : stripes) {
+            result += stripe.flush(now, this);
+        }
+        return result;
+    }
+
+    private Stripe stripeOf(long key) {
+        return stripes[(int) (key ^ (key >>> 32)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Вычисляет ключ события по отпечатку сертификата, виду, уровню и стороне события, подробностям ошибки
+     * и удаленному узлу без номера порта, не формируя текст сообщения.
+     * Отпечаток SHA-256 кешируется моделью сертификата, поэтому повторное вычисление ключа не требует хеширования сертификата.
+     *
+     * @param event событие
+     * @return ключ события
+     */
+    static long keyOf(OmniX509EventModel event) {
+        long h = EventLimiter.fingerprint(event.getCertificateIdentifier(), event.getDetail());
+        h = h * 31L + ordinal(event.getKind());
+        h = h * 31L + ordinal(event.getSide());
+        h = h * 31L + ordinal(event.getLevel());
+        if (event.getConnectionInfo() != null) {
+            h = h * 31L + event.getConnectionInfo().peerHostHash();
+        }
+        return mix(h);
+    }
+
+    private static int ordinal(Enum<?> value) {
+        return value == null ? -1 : value.ordinal();
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Секция таблицы. Небольшой размер позволяет искать ключ простым перебором.
+     * Для каждой записи хранится первое событие периода, из которого строится итоговое событие,
+     * и несколько соединений, в которых возникали повторы. Соединения преобразуются в текст только при формировании
+     * сообщения в потоке разбора очереди, а не в потоке рукопожатия.
+     */
+    private static final class Stripe {
+        private final long[] keys = new long[SLOTS_PER_STRIPE];
+        private final long[] since = new long[SLOTS_PER_STRIPE];
+        private final OmniX509EventModel[] firsts = new OmniX509EventModel[SLOTS_PER_STRIPE];
+        private final long[] repeats = new long[SLOTS_PER_STRIPE];
+        private final OmniConnectionInfo[] peers = new OmniConnectionInfo[SLOTS_PER_STRIPE * PEER_SAMPLE_SIZE];
+
+        synchronized boolean acquire(long key, long timestamp, OmniX509EventModel event, EventCoalescer owner) {
+            int victim = -1;
+            for (int i = 0; i < SLOTS_PER_STRIPE; i++) {
+                if (firsts[i] == null) {
+                    if (victim < 0 || firsts[victim] != null) {
+                        victim = i;
+                    }
+                } else if (keys[i] == key) {
+                    if (timestamp >= since[i] && timestamp < since[i] + owner.windowMs) {
+                        addRepeat(i, event);
+                        return false;
+                    }
+                    close(i, owner);
+                    reset(i, key, timestamp, event);
+                    return true;
+                } else if (victim < 0 || firsts[victim] != null && since[i] < since[victim]) {
+                    victim = i;
+                }
+            }
+            if (firsts[victim] != null) {
+                close(victim, owner);
+            }
+            reset(victim, key, timestamp, event);
+            return true;
+        }
+
+        synchronized int flush(long now, EventCoalescer owner) {
+            int result = 0;
+            for (int i = 0; i < SLOTS_PER_STRIPE; i++) {
+                if (firsts[i] != null && now >= since[i] + owner.windowMs) {
+                    if (close(i, owner)) {
+                        result++;
+                    }
+                    free(i);
+                }
+            }
+            return result;
+        }
+
+        private void addRepeat(int slot, OmniX509EventModel event) {
+            long count = repeats[slot]++;
+            var connectionInfo = event.getConnectionInfo();
+            if (count < PEER_SAMPLE_SIZE && connectionInfo != null && !connectionInfo.isEmpty()) {
+                peers[slot * PEER_SAMPLE_SIZE + (int) count] = connectionInfo;
+            }
+        }
+
+        /**
+         * Передает получателю итоговое событие о повторах за период, если повторы были
+         */
+        private boolean close(int slot, EventCoalescer owner) {
+            if (repeats[slot] == 0L) {
+                return false;
+            }
+            owner.summaries.accept(firsts[slot].withOccurrences(repeats[slot], peerSample(slot)));
+            return true;
+        }
+
+        private List<OmniConnectionInfo> peerSample(int slot) {
+            var result = new ArrayList<OmniConnectionInfo>(PEER_SAMPLE_SIZE);
+            for (int i = slot * PEER_SAMPLE_SIZE; i < (slot + 1) * PEER_SAMPLE_SIZE; i++) {
+                if (peers[i] != null) {
+                    result.add(peers[i]);
+                }
+            }
+            return result;
+        }
+
+        private void reset(int slot, long key, long timestamp, OmniX509EventModel event) {
+            keys[slot] = key;
+            since[slot] = timestamp;
+            firsts[slot] = event;
+            repeats[slot] = 0L;
+            Arrays.fill(peers, slot * PEER_SAMPLE_SIZE, (slot + 1) * PEER_SAMPLE_SIZE, null);
+        }
+
+        private void free(int slot) {
+            firsts[slot] = null;
+            repeats[slot] = 0L;
+            Arrays.fill(peers, slot * PEER_SAMPLE_SIZE, (slot + 1) * PEER_SAMPLE_SIZE, null);
+        }
+
+        synchronized void release(long key) {
+            for (int i = 0; i < SLOTS_PER_STRIPE; i++) {
+                if (firsts[i] != null && keys[i] == key) {
+                    free(i);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -1,33 +1,101 @@
 package ru.github.seregaizsbera.tls.starter;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 /**
  * Ограничивает число событий, относящихся к одной и той же паре идентификаторов,
  * которые можно обработать за указанный период.
  * Если событие можно обработать, метод {@link #accept(String, String, long)} возвращает <code>true</code>.
  * Рассчитывает на то, что будет использоваться в 1 потоке. Не thread-safe.
+ * <p>
+ * Пара ключей заменяется 64-битным отпечатком. Записи хранятся в параллельных массивах примитивов,
+ * поиск выполняется по хеш-таблице с открытой адресацией, а устаревшие записи удаляются
+ * с помощью хешированного колеса таймеров: каждая ячейка колеса - двусвязный список записей,
+ * сохраненных в течение одного тика. После того, как массивы достигли рабочего размера,
+ * обработка события не создает объектов.
+ * <p>
+ * Количество записей ограничено. Если история заполнена, то для нового события вытесняется запись,
+ * выбранная по алгоритму CLOCK (приближение LRU): стрелка обходит записи по кругу и удаляет первую,
+ * к которой не было обращений с момента предыдущего прохода стрелки. Вытеснение означает, что повтор
+ * вытесненного события будет выведен раньше окончания периода, но память не растет с числом соединений.
  */
 class EventLimiter {
-    private final Map<String, Map<String, Long>> index1; // key1 -> key2 -> timestamp
-    private final SortedMap<Long, Map<String, Set<String>>> index2; // timestamp -> key1 -> key2
+    private static final int WHEEL_SIZE = 64;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NIL = -1;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
     private final long limitPeriodMs;
+    private final int maxEntries;
+    /**
+     * Длительность одного тика колеса. Выбирается так, чтобы период укладывался в колесо с запасом в один тик,
+     * иначе ячейка могла бы быть использована повторно до удаления ее записей.
+     */
+    private final long tickMs;
+    // Записи: отпечаток ключей, время события, ссылки списка ячейки колеса
+    private long[] keys;
+    private long[] times;
+    private int[] next;
+    private int[] prev;
+    /**
+     * Признак обращения к записи после предыдущего прохода стрелки CLOCK
+     */
+    private boolean[] referenced;
+    /**
+     * Начала списков ячеек колеса
+     */
+    private final int[] wheel;
+    /**
+     * Хеш-таблица с линейным пробированием: номер записи + 1 или 0 для пустой позиции
+     */
+    private int[] table;
+    /**
+     * Начало списка свободных записей, связанного через {@link #next}
+     */
+    private int free;
+    /**
+     * Количество записей, которые никогда не использовались
+     */
+    private int allocated;
+    private int size;
+    /**
+     * Стрелка CLOCK - номер записи, с которой начнется поиск кандидата на вытеснение
+     */
+    private int hand;
+    /**
+     * Изменяется только потоком, разбирающим очередь, а читается при снятии метрик из любого потока
+     */
+    private volatile long evictions;
+    /**
+     * Тики, меньшие этого значения, уже очищены
+     */
+    private long sweptTick;
     private long lastTime = Long.MIN_VALUE;
 
     /**
      * Конструктор
      *
      * @param limitPeriodMs период, в течение которого не допускается повторение событий
+     * @param maxEntries    максимальное количество событий в истории
      */
-    EventLimiter(long limitPeriodMs) {
+    EventLimiter(long limitPeriodMs, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries должен быть положительным: " + maxEntries);
+        }
         this.limitPeriodMs = limitPeriodMs;
-        this.index1 = new HashMap<>();
-        this.index2 = new TreeMap<>();
+        this.maxEntries = maxEntries;
+        this.tickMs = Math.max(1L, (limitPeriodMs + WHEEL_SIZE - 2) / (WHEEL_SIZE - 1));
+        int capacity = Math.min(INITIAL_CAPACITY, maxEntries);
+        this.keys = new long[capacity];
+        this.times = new long[capacity];
+        this.next = new int[capacity];
+        this.prev = new int[capacity];
+        this.referenced = new boolean[capacity];
+        this.wheel = new int[WHEEL_SIZE];
+        Arrays.fill(wheel, NIL);
+        this.table = new int[tableSize(capacity)];
+        this.free = NIL;
     }
 
     /**
@@ -41,60 +109,250 @@ class EventLimiter {
      */
     boolean accept(String key1, String key2, long timestamp) {
         long now = correctCurrentTimestamp(timestamp);
-        long last = index1.getOrDefault(key1, Map.of()).getOrDefault(key2, Long.MIN_VALUE);
-        if (now < last + limitPeriodMs) {
-            // В истории есть событие с теми же ключами, произошедшее недавно. Обработка запрещается.
-            return false;
+        expire(now);
+        long key = fingerprint(key1, key2);
+        int slot = find(key);
+        int entry = table[slot] - 1;
+        if (entry >= 0) {
+            referenced[entry] = true;
+            if (now < times[entry] + limitPeriodMs) {
+                // В истории есть событие с теми же ключами, произошедшее недавно. Обработка запрещается.
+                return false;
+            }
+            // Старая запись устарела, но еще не удалена. Она переносится в ячейку текущего тика.
+            unlink(entry);
+        } else {
+            if (size >= maxEntries) {
+                evict();
+            }
+            entry = allocate();
+            keys[entry] = key;
+            referenced[entry] = false;
+            slot = find(key);
+            table[slot] = entry + 1;
+            size++;
         }
-        save(key1, key2, now);
-        cleanup(now);
+        times[entry] = now;
+        link(entry, bucket(now));
         return true;
     }
 
     /**
-     * Сохранить в истории информацию о событии
+     * @return количество событий в истории
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return количество событий, вытесненных из истории из-за ограничения ее размера
+     */
+    long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Вытесняет одну запись по алгоритму CLOCK. Завершается не более чем за два оборота стрелки,
+     * т. к. за первый оборот признаки обращения сбрасываются у всех записей.
+     */
+    private void evict() {
+        while (true) {
+            int entry = hand;
+            hand = hand + 1 < allocated ? hand + 1 : 0;
+            if (prev[entry] == NIL) {
+                // Свободная запись
+                continue;
+            }
+            if (referenced[entry]) {
+                referenced[entry] = false;
+                continue;
+            }
+            unlink(entry);
+            remove(entry);
+            // Запись выполняет единственный поток, поэтому составная операция над volatile-полем безопасна
+            evictions = evictions + 1;
+            return;
+        }
+    }
+
+    /**
+     * Удаляет записи из ячеек колеса, все события которых произошли раньше, чем за период до указанного момента.
      *
-     * @param key1 1-й ключ
-     * @param key2 2-й ключ
-     * @param timestamp время события
+     * @param now текущее время
      */
-    private void save(String key1, String key2, long timestamp) {
-        Long timestampBoxed = timestamp;
-        var removedTimestamp = index1.computeIfAbsent(key1, k -> new HashMap<>()).put(key2, timestampBoxed);
-        index2.computeIfAbsent(timestampBoxed, k -> new HashMap<>()).computeIfAbsent(key1, k -> new HashSet<>()).add(key2);
-        if (removedTimestamp != null) {
-            // В журнале находилось старое сообщение с указанными ключами.
-            // Необходимо удалить информацию о нем.
-            var key1ToKeys2 = index2.getOrDefault(removedTimestamp, Map.of());
-            var keys2 = key1ToKeys2.getOrDefault(key1, Set.of());
-            keys2.remove(key2);
-            if (keys2.isEmpty()) {
-                key1ToKeys2.remove(key1);
-                if (key1ToKeys2.isEmpty()) {
-                    index2.remove(removedTimestamp);
-                }
+    private void expire(long now) {
+        long limit = Math.floorDiv(now - limitPeriodMs, tickMs);
+        if (size == 0) {
+            sweptTick = limit;
+            return;
+        }
+        if (limit - sweptTick > WHEEL_SIZE) {
+            // Событий давно не было, достаточно один раз обойти все колесо
+            sweptTick = limit - WHEEL_SIZE;
+        }
+        for (; sweptTick < limit; sweptTick++) {
+            sweep((int) (sweptTick & WHEEL_MASK), now);
+        }
+    }
+
+    private void sweep(int bucket, long now) {
+        int entry = wheel[bucket];
+        while (entry != NIL) {
+            int following = next[entry];
+            if (now >= times[entry] + limitPeriodMs) {
+                unlink(entry);
+                remove(entry);
             }
+            entry = following;
+        }
+    }
+
+    private int bucket(long timestamp) {
+        return (int) (Math.floorDiv(timestamp, tickMs) & WHEEL_MASK);
+    }
+
+    private void link(int entry, int bucket) {
+        int head = wheel[bucket];
+        prev[entry] = -2 - bucket;
+        next[entry] = head;
+        if (head != NIL) {
+            prev[head] = entry;
+        }
+        wheel[bucket] = entry;
+    }
+
+    private void unlink(int entry) {
+        int before = prev[entry];
+        int after = next[entry];
+        if (before >= 0) {
+            next[before] = after;
+        } else {
+            // Для первой записи списка prev хранит закодированный номер ячейки колеса
+            wheel[-2 - before] = after;
+        }
+        if (after != NIL) {
+            prev[after] = before;
         }
     }
 
     /**
-     * Очистить историю устаревших событий.
+     * Удаляет запись из хеш-таблицы со сдвигом последующих записей цепочки и возвращает ее в список свободных.
      *
-     * @param timestamp будут удалены все данные, до указанного момента времени
-     */
-    private void cleanup(long timestamp) {
-        // выборка всех событий, которые произошли до текущего минус limitPeriodMs
-        var toRemove = index2.headMap(timestamp - limitPeriodMs);
-        toRemove.forEach((ts, key1ToKeys2) -> key1ToKeys2.forEach((key1, keys2) -> {
-            var keys2ToTs = index1.getOrDefault(key1, Map.of());
-            if (!keys2ToTs.isEmpty()) {
-                keys2.forEach(keys2ToTs::remove);
+     * @param entry номер записи
+     */
+    private void remove(int entry) {
+        int mask = table.length - 1;
+        int hole = find(keys[entry]);
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            int candidate = table[i];
+            if (candidate == 0) {
+                break;
             }
-            if (keys2ToTs.isEmpty()) {
-                index1.remove(key1);
+            int home = home(keys[candidate - 1], mask);
+            // Запись можно переместить в дыру, если ее исходная позиция не находится между дырой и текущей позицией
+            boolean between = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (!between) {
+                table[hole] = candidate;
+                hole = i;
             }
-        }));
-        toRemove.clear();
+        }
+        table[hole] = 0;
+        prev[entry] = NIL;
+        next[entry] = free;
+        free = entry;
+        size--;
+    }
+
+    /**
+     * @param key отпечаток ключей
+     * @return позицию записи с указанным отпечатком или пустую позицию, в которую ее нужно поместить
+     */
+    private int find(long key) {
+        int mask = table.length - 1;
+        int i = home(key, mask);
+        while (true) {
+            int entry = table[i];
+            if (entry == 0 || keys[entry - 1] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static int home(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private int allocate() {
+        if (free != NIL) {
+            int entry = free;
+            free = next[entry];
+            return entry;
+        }
+        if (allocated == keys.length) {
+            grow();
+        }
+        return allocated++;
+    }
+
+    /**
+     * Увеличивает массивы записей в 2 раза, но не больше максимального размера истории.
+     * Заполненность хеш-таблицы не превышает половины.
+     */
+    private void grow() {
+        int capacity = (int) Math.min(keys.length * 2L, maxEntries);
+        keys = Arrays.copyOf(keys, capacity);
+        times = Arrays.copyOf(times, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        referenced = Arrays.copyOf(referenced, capacity);
+        int[] old = table;
+        table = new int[tableSize(capacity)];
+        for (int entry : old) {
+            if (entry != 0) {
+                table[find(keys[entry - 1])] = entry;
+            }
+        }
+    }
+
+    /**
+     * @param capacity количество записей
+     * @return наименьшую степень двойки, не меньшую удвоенного количества записей
+     */
+    private static int tableSize(int capacity) {
+        return Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1;
+    }
+
+    /**
+     * Вычисляет 64-битный отпечаток пары ключей (FNV-1a по символам с последующим перемешиванием).
+     * Длины ключей участвуют в отпечатке, чтобы пары ("ab", "c") и ("a", "bc") различались.
+     *
+     * @param key1 1-й ключ или <code>null</code>
+     * @param key2 2-й ключ или <code>null</code>
+     * @return отпечаток
+     */
+    static long fingerprint(String key1, String key2) {
+        long h = hash(FNV_OFFSET, key1);
+        h = hash(h, key2);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long hash(long h, String key) {
+        if (key == null) {
+            return (h ^ 0xffffL) * FNV_PRIME;
+        }
+        int length = key.length();
+        for (int i = 0; i < length; i++) {
+            h = (h ^ key.charAt(i)) * FNV_PRIME;
+        }
+        return (h ^ length) * FNV_PRIME;
     }
 
     /**
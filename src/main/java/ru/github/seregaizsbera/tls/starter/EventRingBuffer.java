@@ -0,0 +1,121 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Ограниченная кольцевая очередь без блокировок для многих производителей и одного потребителя.
+ * <p>
+ * Каждая ячейка имеет порядковый номер, по которому производитель определяет, что ячейка свободна,
+ * а потребитель - что она заполнена (схема Д. Вьюкова). Производители конкурируют только за
+ * счетчик {@link #tail} с помощью CAS, потребитель не конкурирует ни с кем.
+ * Метод {@link #drain(Consumer, int)} допускается вызывать только из одного потока.
+ *
+ * @param <E> тип элементов
+ */
+final class EventRingBuffer<E> {
+    private final int capacity;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    /**
+     * Номер следующей ячейки для записи
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Номер следующей ячейки для чтения. Изменяется только потребителем.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Конструктор
+     *
+     * @param capacity емкость очереди
+     */
+    EventRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity должен быть положительным: " + capacity);
+        }
+        this.capacity = capacity;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Добавляет элемент в очередь, если в ней есть место. Не блокирует поток.
+     *
+     * @param element элемент
+     * @return <code>true</code>, если элемент добавлен, <code>false</code>, если очередь заполнена
+     */
+    boolean offer(E element) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0L) {
+                if (tail.compareAndSet(pos, pos + 1L)) {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, pos + 1L);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0L) {
+                // Ячейка еще не прочитана потребителем после предыдущего круга
+                return false;
+            } else {
+                // Другой производитель уже занял эту ячейку
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Извлекает из очереди до limit элементов и передает их consumer. Вызывается только потребителем.
+     *
+     * @param consumer получатель элементов
+     * @param limit    максимальное количество элементов
+     * @return количество извлеченных элементов
+     */
+    int drain(Consumer<? super E> consumer, int limit) {
+        long pos = head.get();
+        int count = 0;
+        while (count < limit) {
+            int index = (int) (pos % capacity);
+            if (sequences.get(index) != pos + 1L) {
+                // Ячейка пуста или производитель еще не закончил запись
+                break;
+            }
+            E element = elements.get(index);
+            elements.lazySet(index, null);
+            sequences.lazySet(index, pos + capacity);
+            pos++;
+            head.lazySet(pos);
+            count++;
+            consumer.accept(element);
+        }
+        return count;
+    }
+
+    /**
+     * @return приблизительное количество элементов в очереди
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0L, Math.min(size, capacity));
+    }
+
+    /**
+     * @return <code>true</code>, если очередь заполнена
+     */
+    boolean isFull() {
+        return size() >= capacity;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,247 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509CertificateModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import java.security.cert.X509Certificate;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Реестр всех сертификатов, которые проверялись менеджерами доверия и ключей, упорядоченный по ближайшему
+ * моменту пересечения порогов INFO, WARN, ERROR или истечения срока действия.
+ * <p>
+ * Сертификат, который используется редко, например, сертификат партнера, с которым соединение устанавливается
+ * раз в сутки, может пересечь порог между соединениями. Реестр сообщает о пересечении в момент пересечения,
+ * без рукопожатий и без периодического обхода всех сертификатов: в планировщике {@link OmniExecutors#scheduler()}
+ * всегда запланирована одна задача на момент ближайшего пересечения.
+ * <p>
+ * Реестр хранит не сами сертификаты, а только отпечаток, сведения для сообщения и окончание срока действия.
+ * Сертификаты, все пороги которых пройдены, удаляются из реестра, а сертификаты, уже истекшие при первой встрече,
+ * в него не попадают: о них сообщается при проверках в рукопожатиях. Количество сертификатов ограничено.
+ * При заполнении реестра вытесняется сертификат с самым поздним моментом пересечения, поэтому после замены
+ * сертификатов на долго работающем сервере новые сертификаты продолжают отслеживаться.
+ */
+final class ExpirationTimer {
+    /**
+     * Максимальное количество сертификатов в реестре
+     */
+    static final int MAX_CERTIFICATES = 10_000;
+    private final OmniSecurityNotifier notifier;
+    private final ScheduledExecutorService scheduler;
+    private final Supplier<OmniTlsStarterSettings> settings;
+    /**
+     * Максимальное количество сертификатов в реестре
+     */
+    private final int capacity;
+    /**
+     * Отпечаток сертификата -> запись. Используется для быстрой проверки без блокировки.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Записи в порядке ближайшего пересечения порога
+     */
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong(Entry::getFireAt));
+    /**
+     * Запланированная задача и момент, на который она запланирована
+     */
+    private ScheduledFuture<?> pending;
+    private long pendingAt = Long.MAX_VALUE;
+
+    ExpirationTimer(OmniSecurityNotifier notifier, ScheduledExecutorService scheduler, Supplier<OmniTlsStarterSettings> settings) {
+        this(notifier, scheduler, settings, MAX_CERTIFICATES);
+    }
+
+    ExpirationTimer(OmniSecurityNotifier notifier, ScheduledExecutorService scheduler, Supplier<OmniTlsStarterSettings> settings,
+                    int capacity) {
+        this.notifier = notifier;
+        this.scheduler = scheduler;
+        this.settings = settings;
+        this.capacity = capacity;
+    }
+
+    static ExpirationTimer getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Добавляет сертификат в реестр, если его там еще нет.
+     *
+     * @param cert сертификат
+     * @param side сторона соединения, в которой сертификат встретился впервые
+     */
+    void observe(X509Certificate cert, Side side) {
+        observe(cert, side, System.currentTimeMillis());
+    }
+
+    /**
+     * Добавляет сертификат в реестр, если его там еще нет, и у него остались непройденные пороги. Блокировка
+     * берется, только если сертификат нужно поставить в очередь, т. е. не более одного раза для каждого сертификата,
+     * пока он находится в реестре.
+     *
+     * @param cert сертификат
+     * @param side сторона соединения
+     * @param now  текущее время Unixtime millis
+     */
+    void observe(X509Certificate cert, Side side, long now) {
+        var model = OmniX509CertificateModel.of(cert);
+        if (entries.containsKey(model.getFingerprint())) {
+            return;
+        }
+        var entry = new Entry(model, side, cert.getNotAfter().getTime());
+        long fireAt = expiration(entry).nextThreshold(now);
+        if (fireAt == Long.MAX_VALUE) {
+            // Сертификат уже истек, о нем сообщается при проверках в рукопожатиях
+            return;
+        }
+        entry.fireAt = fireAt;
+        if (entries.putIfAbsent(model.getFingerprint(), entry) == null) {
+            schedule(entry, now);
+        }
+    }
+
+    private synchronized void schedule(Entry entry, long now) {
+        if (queue.size() >= capacity) {
+            evictLatest();
+        }
+        queue.add(entry);
+        reschedule(now);
+    }
+
+    /**
+     * Удаляет из реестра сертификат с самым поздним моментом пересечения порога
+     */
+    private void evictLatest() {
+        Entry latest = null;
+        for (var entry : queue) {
+            if (latest == null || entry.getFireAt() > latest.getFireAt()) {
+                latest = entry;
+            }
+        }
+        if (latest != null) {
+            queue.remove(latest);
+            entries.remove(latest.model.getFingerprint(), latest);
+        }
+    }
+
+    /**
+     * Сообщает о пересечении порогов всеми сертификатами, у которых момент пересечения наступил,
+     * и планирует следующую проверку.
+     *
+     * @param now текущее время Unixtime millis
+     * @return количество событий
+     */
+    synchronized int fire(long now) {
+        pending = null;
+        pendingAt = Long.MAX_VALUE;
+        int result = 0;
+        while (!queue.isEmpty() && queue.peek().getFireAt() <= now) {
+            var entry = queue.poll();
+            var expiration = expiration(entry);
+            if (expiration.isBelowThreshold(now)) {
+                var message = OmniX509Commons.formatExpiration(entry.side, entry.model, expiration.days(now), OmniConnectionInfo.NONE);
+                notifier.notify(new OmniX509EventModel(expiration.level(now), message, entry.model.getFingerprint()));
+                result++;
+            }
+            long next = expiration.nextThreshold(now);
+            if (next == Long.MAX_VALUE) {
+                // Все пороги пройдены
+                entries.remove(entry.model.getFingerprint(), entry);
+            } else {
+                entry.fireAt = next;
+                queue.add(entry);
+            }
+        }
+        reschedule(now);
+        return result;
+    }
+
+    /**
+     * @return количество сертификатов в реестре
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return количество сертификатов с запланированными событиями
+     */
+    synchronized int scheduled() {
+        return queue.size();
+    }
+
+    /**
+     * @return момент ближайшего пересечения порога или {@link Long#MAX_VALUE}, если реестр пуст
+     */
+    synchronized long nextFireAt() {
+        var entry = queue.peek();
+        return entry == null ? Long.MAX_VALUE : entry.getFireAt();
+    }
+
+    private CertificateExpiration expiration(Entry entry) {
+        return new CertificateExpiration(entry.notAfter, settings.get().expirationThresholds());
+    }
+
+    /**
+     * Планирует задачу на момент ближайшего пересечения, если он раньше уже запланированного.
+     */
+    private void reschedule(long now) {
+        var entry = queue.peek();
+        if (entry == null || entry.getFireAt() >= pendingAt) {
+            return;
+        }
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pendingAt = entry.getFireAt();
+        pending = scheduler.schedule(this::fireNow, Math.max(0L, pendingAt - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void fireNow() {
+        fire(System.currentTimeMillis());
+    }
+
+    /**
+     * Сертификат в реестре
+     */
+    private static final class Entry {
+        /**
+         * Отпечаток и сведения для сообщения
+         */
+        private final OmniX509CertificateModel model;
+        private final Side side;
+        /**
+         * Окончание срока действия Unixtime millis
+         */
+        private final long notAfter;
+        /**
+         * Момент ближайшего пересечения порога Unixtime millis или {@link Long#MAX_VALUE}, если пересечений больше нет.
+         * Изменяется только вне очереди.
+         */
+        private long fireAt = Long.MAX_VALUE;
+
+        Entry(OmniX509CertificateModel model, Side side, long notAfter) {
+            this.model = model;
+            this.side = side;
+            this.notAfter = notAfter;
+        }
+
+        long getFireAt() {
+            return fireAt;
+        }
+    }
+
+    private static final class Holder {
+        private static final ExpirationTimer INSTANCE = new ExpirationTimer(OmniSecurityNotifier.getInstance(),
+                OmniExecutors.scheduler(), OmniTlsStarterSettings::getInstance);
+    }
+}
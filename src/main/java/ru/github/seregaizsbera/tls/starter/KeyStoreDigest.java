@@ -0,0 +1,134 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+
+/**
+ * Вычисляет ключи кэширования для хранилищ ключей и сертификатов по их содержимому.
+ */
+final class KeyStoreDigest {
+    private static final String[] DEFAULT_TRUST_STORE_PROPERTIES = {
+            "javax.net.ssl.trustStore", "javax.net.ssl.trustStoreType", "javax.net.ssl.trustStoreProvider"
+    };
+    /**
+     * Случайная соль, с которой хешируются пароли. Создается заново в каждом процессе, поэтому ключи кэша
+     * нельзя использовать для подбора пароля за пределами процесса.
+     */
+    private static final byte[] PASSWORD_SALT = new byte[16];
+    static {
+        new SecureRandom().nextBytes(PASSWORD_SALT);
+    }
+
+    private KeyStoreDigest() {
+    }
+
+    /**
+     * Вычисляет SHA-256 по типу хранилища, псевдонимам и кодированным представлениям всех сертификатов.
+     * Псевдонимы упорядочиваются, поэтому результат не зависит от порядка записей в хранилище.
+     * Закрытые ключи в вычислении не участвуют, т. к. для их чтения нужен пароль, но цепочка сертификатов
+     * содержит открытый ключ, парный закрытому.
+     *
+     * @param ks хранилище
+     * @return отпечаток содержимого хранилища в шестнадцатеричном виде
+     * @throws GeneralSecurityException если хранилище не загружено или сертификат не удалось кодировать
+     */
+    static String of(KeyStore ks) throws GeneralSecurityException {
+        var digest = MessageDigest.getInstance("SHA-256");
+        update(digest, ks);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Вычисляет SHA-256 по содержимому хранилища, как {@link #of(KeyStore)}, и по паролю с солью.
+     * Разные пароли к одному хранилищу дают разные ключи.
+     *
+     * @param ks       хранилище
+     * @param password пароль или <code>null</code>
+     * @return отпечаток содержимого хранилища и пароля в шестнадцатеричном виде
+     * @throws GeneralSecurityException если хранилище не загружено или сертификат не удалось кодировать
+     */
+    static String of(KeyStore ks, char[] password) throws GeneralSecurityException {
+        var digest = MessageDigest.getInstance("SHA-256");
+        update(digest, ks);
+        digest.update(PASSWORD_SALT);
+        if (password == null) {
+            digest.update((byte) 0);
+        } else {
+            digest.update((byte) 1);
+            var bytes = new byte[password.length * 2];
+            for (int i = 0; i < password.length; i++) {
+                bytes[2 * i] = (byte) (password[i] >>> 8);
+                bytes[2 * i + 1] = (byte) password[i];
+            }
+            digest.update(bytes);
+            Arrays.fill(bytes, (byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, KeyStore ks) throws GeneralSecurityException {
+        update(digest, ks.getType().getBytes(StandardCharsets.UTF_8));
+        var aliases = new ArrayList<>(Collections.list(ks.aliases()));
+        Collections.sort(aliases);
+        for (String alias : aliases) {
+            update(digest, alias.getBytes(StandardCharsets.UTF_8));
+            if (ks.isKeyEntry(alias)) {
+                digest.update((byte) 1);
+                var chain = ks.getCertificateChain(alias);
+                if (chain != null) {
+                    for (Certificate cert : chain) {
+                        update(digest, cert.getEncoded());
+                    }
+                }
+            } else {
+                digest.update((byte) 2);
+                var cert = ks.getCertificate(alias);
+                if (cert != null) {
+                    update(digest, cert.getEncoded());
+                }
+            }
+        }
+    }
+
+    /**
+     * Вычисляет ключ для хранилища доверенных сертификатов по умолчанию, которое используется при инициализации
+     * с <code>null</code>. Ключ учитывает системные свойства, задающие хранилище, а также время изменения
+     * и размер файла хранилища, поэтому замена файла приводит к новому ключу.
+     *
+     * @return ключ хранилища по умолчанию
+     */
+    static String ofDefaultTrustStore() {
+        var result = new StringBuilder("default");
+        for (String property : DEFAULT_TRUST_STORE_PROPERTIES) {
+            result.append(':').append(System.getProperty(property, ""));
+        }
+        var file = defaultTrustStoreFile();
+        result.append(':').append(file.getPath()).append(':').append(file.lastModified()).append(':').append(file.length());
+        return result.toString();
+    }
+
+    private static File defaultTrustStoreFile() {
+        var trustStore = System.getProperty("javax.net.ssl.trustStore");
+        if (trustStore != null && !trustStore.isEmpty() && !"NONE".equals(trustStore)) {
+            return new File(trustStore);
+        }
+        var securityDir = new File(System.getProperty("java.home"), "lib" + File.separator + "security");
+        var jsseCacerts = new File(securityDir, "jssecacerts");
+        return jsseCacerts.isFile() ? jsseCacerts : new File(securityDir, "cacerts");
+    }
+
+    private static void update(MessageDigest digest, byte[] data) {
+        int length = data.length;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(data);
+    }
+}
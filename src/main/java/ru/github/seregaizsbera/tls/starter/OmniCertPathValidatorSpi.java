@@ -2,6 +2,8 @@ package ru.github.seregaizsbera.tls.starter;
 
 import org.slf4j.event.Level;
 import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Kind;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
 
 import java.security.GeneralSecurityException;
 import java.security.Provider;
@@ -15,10 +17,19 @@ import java.security.cert.CertPathValidatorSpi;
 import java.security.cert.PKIXCertPathValidatorResult;
 import java.security.cert.X509Certificate;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Реализация менеджера ключей в провайдере безопасности {@value OmniSecurityProvider#NAME}. Делегирует вызовы методов
  * провайдеру безопасности {@value #INTERNAL_PROVIDER}, используя при этом алгоритм {@linkplain #ALGORITHM}.
+ * <p>
+ * Провайдер установлен первым, поэтому через данный класс проходят все проверки PKIX в JVM, в том числе проверки
+ * подписей jar-файлов и XML. Экземпляр класса создается при каждом вызове {@link CertPathValidator#getInstance(String)},
+ * поэтому конструктор ничего не делает, а стандартные объекты проверки берутся из общего пула. Дополнительные
+ * проверки выполняются только внутри проверки цепочки менеджером доверия (см. {@link OmniTLSContext}),
+ * остальные проверки только делегируются.
  */
 public class OmniCertPathValidatorSpi extends CertPathValidatorSpi {
     /**
@@ -29,34 +40,59 @@ public class OmniCertPathValidatorSpi extends CertPathValidatorSpi {
      * Имя алгоритма, который реализуется в данном классе
      */
     public static final String ALGORITHM = "PKIX";
-    private final Provider internalProvider;
-    private final OmniSecurityNotifier notifier;
+    /**
+     * Максимальное количество стандартных объектов проверки в пуле
+     */
+    private static final int POOL_CAPACITY = 16;
+    /**
+     * Стандартные объекты проверки, свободные в данный момент. Объект {@link CertPathValidator} не должен
+     * использоваться несколькими потоками одновременно, поэтому на время проверки он извлекается из пула.
+     * Через пул проходят все проверки PKIX в JVM, поэтому он не использует блокировок.
+     */
+    private static final Queue<CertPathValidator> pool = new ConcurrentLinkedQueue<>();
+    /**
+     * Количество объектов в пуле. Размер {@link ConcurrentLinkedQueue} вычисляется обходом очереди,
+     * поэтому он учитывается отдельно. Значение может ненадолго превышать фактический размер пула.
+     */
+    private static final AtomicInteger poolSize = new AtomicInteger();
+    private static volatile Provider internalProvider;
 
     /**
      * Создает экземпляр объекта.
      */
     public OmniCertPathValidatorSpi() {
-        this.internalProvider = Objects.requireNonNull(Security.getProvider(INTERNAL_PROVIDER), "Не найден провайдер безопасности " + INTERNAL_PROVIDER);
-        this.notifier = OmniSecurityNotifier.getInstance();
+        // Состояние хранится в статических полях
     }
 
     @SuppressWarnings("java:S1066")
     @Override
     public CertPathValidatorResult engineValidate(CertPath certPath, CertPathParameters params) throws CertPathValidatorException {
+        var event = new OmniEvents.CertPathValidate();
+        event.begin();
+        CertPathValidator cpv = null;
+        boolean pooled = false;
+        boolean success = false;
         try {
-            var cpv = CertPathValidator.getInstance(ALGORITHM, internalProvider);
+            cpv = pool.poll();
+            pooled = cpv != null;
+            if (pooled) {
+                poolSize.decrementAndGet();
+            } else {
+                cpv = create();
+            }
             var result = cpv.validate(certPath, params);
-            if (result instanceof PKIXCertPathValidatorResult pkixcpvr) {
+            success = true;
+            var context = OmniTLSContext.current();
+            if (context.isPresent() && result instanceof PKIXCertPathValidatorResult pkixcpvr) {
                 var anchor = pkixcpvr.getTrustAnchor().getTrustedCert();
-                if (!anchor.getSubjectX500Principal().equals(anchor.getIssuerX500Principal())) {
-                    OmniTLSContext.pull().ifPresent(info -> {
-                        if (certPath.getCertificates().get(0) instanceof X509Certificate cert0) {
-                            if (certPath.getCertificates().size() == info.chainLength()) {
-                                var msg = makeIncompleteChainMessage(info, cert0);
-                                notifier.notify(new OmniX509EventModel(Level.ERROR, msg, cert0.getSerialNumber().toString(16)));
-                            }
+                if (anchor != null && !anchor.getSubjectX500Principal().equals(anchor.getIssuerX500Principal())) {
+                    var info = context.get();
+                    if (certPath.getCertificates().get(0) instanceof X509Certificate cert0) {
+                        if (certPath.getCertificates().size() == info.chainLength()) {
+                            OmniSecurityNotifier.getInstance().notify(new OmniX509EventModel(Level.ERROR, Kind.INCOMPLETE_CHAIN, Side.SERVER, cert0, 0L,
+                                    info.connInfo(), null, OmniCertPathValidatorSpi::makeIncompleteChainMessage));
                         }
-                    });
+                    }
                 }
             }
             return result;
@@ -64,11 +100,51 @@ public class OmniCertPathValidatorSpi extends CertPathValidatorSpi {
             var exception = new CertPathValidatorException(e);
             exception.setStackTrace(e.getStackTrace());
             throw exception;
+        } finally {
+            if (cpv != null) {
+                release(cpv);
+            }
+            commit(event, certPath, pooled, success);
+        }
+    }
+
+    /**
+     * Возвращает стандартный объект проверки в пул, если пул не заполнен
+     */
+    private static void release(CertPathValidator cpv) {
+        if (poolSize.incrementAndGet() <= POOL_CAPACITY) {
+            pool.offer(cpv);
+        } else {
+            poolSize.decrementAndGet();
+        }
+    }
+
+    private static CertPathValidator create() throws GeneralSecurityException {
+        var provider = internalProvider;
+        if (provider == null) {
+            provider = Objects.requireNonNull(Security.getProvider(INTERNAL_PROVIDER), "Не найден провайдер безопасности " + INTERNAL_PROVIDER);
+            internalProvider = provider;
+        }
+        return CertPathValidator.getInstance(ALGORITHM, provider);
+    }
+
+    /**
+     * Записывает событие JFR, если запись включена. Неуспешные проверки записываются с признаком неуспешной проверки.
+     */
+    private static void commit(OmniEvents.CertPathValidate event, CertPath certPath, boolean pooled, boolean success) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.pathLength = certPath.getCertificates().size();
+            event.pooled = pooled;
+            event.success = success;
+            event.peer = OmniTLSContext.current().map(data -> data.connInfo().toString()).orElse("");
+            event.commit();
         }
     }
 
-    private static String makeIncompleteChainMessage(OmniTLSContext.Data info, X509Certificate cert0) {
-        var connectionInfo = info.connInfo();
+    private static String makeIncompleteChainMessage(OmniX509EventModel event) {
+        var cert0 = event.getCertificateModel();
+        var connectionInfo = event.getConnectionInfo();
         var format = "Цепочка сертификатов, начинающаяся с сертификата %1$s%2$s, неполная," +
                 " т. е. в ней присутствуют не все промежуточные сертификаты." +
                 " Сервер нарушает RFC 5246, раздел 7.4.2, и RFC 8446, раздел 4.4.2";
@@ -76,6 +152,6 @@ public class OmniCertPathValidatorSpi extends CertPathValidatorSpi {
             format += "%n Соединение: %3$s";
         }
         format += " (%4$s).%n";
-        return String.format(format, cert0.getSubjectX500Principal().getName(), OmniX509Commons.extractSAN(cert0), connectionInfo, "dqlg");
+        return String.format(format, cert0.getSubject(), cert0.getSubjectAlternativeNames(), connectionInfo, "dqlg");
     }
 }
@@ -0,0 +1,103 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * События JDK Flight Recorder, по которым в записях JFR можно определить вклад провайдера в длительность рукопожатий.
+ * <p>
+ * Пока запись не включена, создание события и вызовы {@link Event#begin()} и {@link Event#end()} ничего не стоят,
+ * а поля событий заполняются только после проверки {@link Event#shouldCommit()}. Поэтому события не требуют
+ * настроек и внешних зависимостей. Трассировки стека не записываются.
+ */
+final class OmniEvents {
+    private static final String PREFIX = "ru.github.seregaizsbera.tls.";
+    private static final String CATEGORY = "Omni TLS";
+
+    private OmniEvents() {
+    }
+
+    /**
+     * Проверка цепочки сертификатов менеджером доверия, включая дополнительные проверки
+     */
+    @Name(PREFIX + "OmniTrustCheck")
+    @Label("Omni Trust Check")
+    @Description("Проверка цепочки сертификатов менеджером доверия")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class TrustCheck extends Event {
+        @Label("Side")
+        String side;
+        @Label("Auth Type")
+        String authType;
+        @Label("Chain Length")
+        int chainLength;
+        @Label("Cached")
+        @Description("Цепочка найдена в кэше проверенных цепочек, стандартный менеджер доверия не вызывался")
+        boolean cached;
+        @Label("Success")
+        @Description("Цепочка принята стандартным менеджером доверия или найдена в кэше проверенных цепочек")
+        boolean success;
+        @Label("Peer")
+        String peer;
+    }
+
+    /**
+     * Получение цепочки сертификатов из менеджера ключей
+     */
+    @Name(PREFIX + "OmniKeyChainLookup")
+    @Label("Omni Key Chain Lookup")
+    @Description("Получение цепочки сертификатов из менеджера ключей")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class KeyChainLookup extends Event {
+        @Label("Alias")
+        String alias;
+        @Label("Chain Length")
+        int chainLength;
+        @Label("Cached")
+        @Description("Результат проверки цепочки взят из кэша, проверка не выполнялась")
+        boolean cached;
+    }
+
+    /**
+     * Проверка пути сертификации провайдером
+     */
+    @Name(PREFIX + "OmniCertPathValidate")
+    @Label("Omni CertPath Validate")
+    @Description("Проверка пути сертификации PKIX")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class CertPathValidate extends Event {
+        @Label("Path Length")
+        int pathLength;
+        @Label("Pooled")
+        @Description("Стандартный объект проверки взят из пула")
+        boolean pooled;
+        @Label("Success")
+        @Description("Путь сертификации принят")
+        boolean success;
+        @Label("Peer")
+        @Description("Соединение, если проверка выполняется внутри проверки менеджером доверия")
+        String peer;
+    }
+
+    /**
+     * Разбор очереди событий
+     */
+    @Name(PREFIX + "OmniNotifierDrain")
+    @Label("Omni Notifier Drain")
+    @Description("Разбор очереди событий и вывод в лог")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class NotifierDrain extends Event {
+        @Label("Limit")
+        int limit;
+        @Label("Drained")
+        int drained;
+    }
+}
@@ -0,0 +1,82 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общие потоки фоновых задач стартера.
+ * <p>
+ * Планировщик выполняет периодические задачи: разбор очереди событий, перезагрузку хранилищ и т. п.
+ * Задачи выполняются в одном потоке-демоне, который создается при первом обращении.
+ * Задачи должны быть короткими и не должны блокироваться надолго.
+ * <p>
+ * Планировщик хранилищ выполняет долгие задачи с файлами и содержимым хранилищ: опрос и перезагрузку файлов,
+ * периодическую проверку сертификатов. Они выполняются в отдельном потоке-демоне, чтобы не задерживать
+ * разбор очереди событий и срабатывания таймеров в общем планировщике.
+ * <p>
+ * Исполнитель проверок выполняет дополнительные проверки сертификатов, перенесенные из потоков рукопожатия
+ * (см. {@link OmniTlsStarterSettings#isDeferredEngineValidation()}). Его очередь ограничена, и при переполнении
+ * новые проверки отбрасываются так же, как события при переполнении очереди {@link OmniSecurityNotifier}.
+ */
+final class OmniExecutors {
+    private static final String THREAD_NAME = "OmniTLS";
+    private static final String VALIDATION_THREAD_NAME = "OmniTLS-validation";
+    private static final String STORES_THREAD_NAME = "OmniTLS-stores";
+    /**
+     * Максимальное количество проверок, ожидающих выполнения
+     */
+    private static final int VALIDATION_QUEUE_CAPACITY = 1024;
+
+    private OmniExecutors() {
+    }
+
+    /**
+     * @return общий планировщик
+     */
+    static ScheduledExecutorService scheduler() {
+        return Holder.SCHEDULER;
+    }
+
+    /**
+     * @return планировщик задач с хранилищами
+     */
+    static ScheduledExecutorService stores() {
+        return StoresHolder.STORES;
+    }
+
+    /**
+     * @return исполнитель отложенных проверок с ограниченной очередью
+     */
+    static Executor validation() {
+        return ValidationHolder.VALIDATION;
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Holder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(threadFactory(THREAD_NAME));
+    }
+
+    private static final class StoresHolder {
+        private static final ScheduledExecutorService STORES = Executors.newSingleThreadScheduledExecutor(threadFactory(STORES_THREAD_NAME));
+    }
+
+    private static final class ValidationHolder {
+        private static final Executor VALIDATION = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(VALIDATION_QUEUE_CAPACITY), threadFactory(VALIDATION_THREAD_NAME),
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+}
@@ -16,6 +16,14 @@ import java.util.stream.IntStream;
 /**
  * Реализация менеджера ключей в провайдере безопасности {@value OmniSecurityProvider#NAME}. Делегирует вызовы методов
  * провайдеру безопасности {@value #INTERNAL_PROVIDER}, используя при этом алгоритм {@linkplain #ALGORITHM}.
+ * <p>
+ * Если включена настройка {@link OmniTlsStarterSettings#isKeyManagerCache()}, то фабрики, инициализированные
+ * хранилищем ключей и паролем, кэшируются на уровне процесса по отпечатку содержимого хранилища и пароля.
+ * Повторная инициализация тем же хранилищем не расшифровывает закрытые ключи заново.
+ * Кэш очищается методом {@link #invalidateCache()}.
+ * <p>
+ * Если хранилище, которым инициализирована фабрика, указано в {@link OmniTlsStarterSettings#getReloadStores()},
+ * то созданные менеджеры ключей перезагружаются при изменении его файла (см. {@link StoreReloader}).
  */
 public class OmniKeyManagerFactorySpi extends KeyManagerFactorySpi {
     /**
@@ -23,7 +31,16 @@ public class OmniKeyManagerFactorySpi extends KeyManagerFactorySpi {
      */
     public static final String INTERNAL_PROVIDER = "SunJSSE";
     private static final String ALGORITHM = KeyManagerFactory.getDefaultAlgorithm();
+    /**
+     * Максимальное количество различных хранилищ ключей в кэше
+     */
+    private static final int CACHE_CAPACITY = 32;
+    private static final BoundedCache<String, KeyManagerFactory> cache = new BoundedCache<>(CACHE_CAPACITY);
     private final AtomicReference<KeyManagerFactory> kmf = new AtomicReference<>();
+    /**
+     * Отпечаток содержимого хранилища, если созданные менеджеры нужно перезагружать при его изменении
+     */
+    private volatile String storeDigest;
     private final OmniSecurityNotifier notifier;
     private final OmniTlsStarterSettings settings;
 
@@ -37,8 +54,22 @@ public class OmniKeyManagerFactorySpi extends KeyManagerFactorySpi {
 
     @Override
     protected void engineInit(KeyStore ks, char[] password) throws KeyStoreException {
+        if (ks != null && StoreReloader.isEnabled(settings)) {
+            storeDigest = storeDigest(ks);
+        }
+        var key = settings.isKeyManagerCache() ? cacheKey(ks, password) : null;
+        var cached = key == null ? null : cache.get(key);
+        if (cached != null) {
+            if (!kmf.compareAndSet(null, cached)) {
+                throw new IllegalStateException(String.format("%s: engine already initialized", OmniKeyManagerFactorySpi.class.getSimpleName()));
+            }
+            return;
+        }
         try {
             init(it -> it.init(ks, password));
+            if (key != null) {
+                cache.put(key, kmf.get());
+            }
         } catch (GeneralSecurityException e) {
             var exception = new KeyStoreException(e);
             exception.setStackTrace(e.getStackTrace());
@@ -66,9 +97,73 @@ public class OmniKeyManagerFactorySpi extends KeyManagerFactorySpi {
         var keyManagers = keyManagerFactory.getKeyManagers();
         IntStream.range(0, keyManagers.length)
                 .forEach(i -> keyManagers[i] = OmniX509ExtendedKeyManager.wrap(keyManagers[i], notifier, settings));
+        // Собственные сертификаты проверяются сразу, чтобы при установлении соединений проверки не выполнялись
+        for (var keyManager : keyManagers) {
+            if (keyManager instanceof OmniX509ExtendedKeyManager omniKeyManager) {
+                omniKeyManager.validateAliases();
+                if (settings.isSniAliasIndex()) {
+                    omniKeyManager.indexServerAliases();
+                }
+                if (storeDigest != null) {
+                    omniKeyManager.bindStore(storeDigest);
+                    StoreReloader.register(omniKeyManager);
+                }
+                if (StoreScanner.isEnabled(settings)) {
+                    StoreScanner.register(omniKeyManager);
+                }
+            }
+        }
         return keyManagers;
     }
 
+    /**
+     * @param ks       хранилище ключей или <code>null</code>
+     * @param password пароль
+     * @return ключ кэша или <code>null</code>, если результат не кэшируется
+     */
+    private static String cacheKey(KeyStore ks, char[] password) {
+        if (ks == null) {
+            // Хранилище по умолчанию задается системными свойствами и не кэшируется
+            return null;
+        }
+        try {
+            return KeyStoreDigest.of(ks, password);
+        } catch (GeneralSecurityException e) {
+            // Ошибку сообщит стандартная фабрика при инициализации
+            return null;
+        }
+    }
+
+    private static String storeDigest(KeyStore ks) {
+        try {
+            return KeyStoreDigest.of(ks);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Создает стандартные менеджеры ключей без оберток. Используется при перезагрузке хранилища.
+     *
+     * @param ks       хранилище ключей
+     * @param password пароль закрытых ключей
+     * @return менеджеры ключей провайдера {@value #INTERNAL_PROVIDER}
+     * @throws GeneralSecurityException если менеджеры не удалось создать
+     */
+    static KeyManager[] createDelegates(KeyStore ks, char[] password) throws GeneralSecurityException {
+        var result = KeyManagerFactory.getInstance(ALGORITHM, INTERNAL_PROVIDER);
+        result.init(ks, password);
+        return result.getKeyManagers();
+    }
+
+    /**
+     * Очищает кэш фабрик менеджеров ключей. Вызывается после замены ключей в хранилище,
+     * чтобы следующая инициализация прочитала их заново.
+     */
+    public static void invalidateCache() {
+        cache.clear();
+    }
+
     private void init(KMFConsumer kmfConsumer) throws GeneralSecurityException {
         if (kmf.get() != null) {
             throw new IllegalStateException(String.format("%s: engine already initialized", OmniKeyManagerFactorySpi.class.getSimpleName()));
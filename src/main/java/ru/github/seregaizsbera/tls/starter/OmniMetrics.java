@@ -0,0 +1,114 @@
+package ru.github.seregaizsbera.tls.starter;
+
+/**
+ * Точка записи длительностей операций провайдера.
+ * <p>
+ * Провайдер безопасности не должен иметь внешних зависимостей, поэтому здесь нет ссылок на библиотеку метрик.
+ * Пока получатель не установлен (см. {@link OmniTlsMeterBinder}), запись не делает ничего, даже не читает часы.
+ * Получатель должен записывать длительности в заранее созданные инструменты без выделения памяти.
+ * <p>
+ * Здесь же хранится набор сертификатов, для которых публикуются метрики сроков действия.
+ */
+final class OmniMetrics {
+    private static volatile Recorder recorder;
+    private static volatile CertificateGauges certificateGauges;
+
+    private OmniMetrics() {
+    }
+
+    /**
+     * Начинает измерение.
+     *
+     * @return момент начала в наносекундах или 0, если метрики не собираются
+     */
+    static long start() {
+        return recorder == null ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Записывает длительность операции, начатой в момент <code>started</code>.
+     *
+     * @param timing  операция
+     * @param started момент начала, полученный от {@link #start()} или предыдущего вызова этого метода
+     * @return момент окончания, который можно использовать как начало следующей операции, или 0,
+     * если метрики не собираются
+     */
+    static long stop(Timing timing, long started) {
+        var current = recorder;
+        if (current == null || started == 0L) {
+            return 0L;
+        }
+        long now = System.nanoTime();
+        current.record(timing, now - started);
+        return now;
+    }
+
+    /**
+     * Устанавливает получателя длительностей.
+     *
+     * @param recorder получатель или <code>null</code>, чтобы выключить запись
+     */
+    static void setRecorder(Recorder recorder) {
+        OmniMetrics.recorder = recorder;
+    }
+
+    /**
+     * @return набор сертификатов для метрик сроков действия или <code>null</code>, если метрики не собираются
+     */
+    static CertificateGauges certificateGauges() {
+        return certificateGauges;
+    }
+
+    /**
+     * Устанавливает набор сертификатов для метрик сроков действия.
+     *
+     * @param certificateGauges набор или <code>null</code>, чтобы выключить учет сертификатов
+     */
+    static void setCertificateGauges(CertificateGauges certificateGauges) {
+        OmniMetrics.certificateGauges = certificateGauges;
+    }
+
+    /**
+     * Измеряемые операции
+     */
+    enum Timing {
+        /** Проверка цепочки сервера стандартным менеджером доверия */
+        SERVER_DELEGATE("server", "delegate"),
+        /** Дополнительные проверки цепочки сервера */
+        SERVER_CHECKS("server", "omni"),
+        /** Проверка цепочки клиента стандартным менеджером доверия */
+        CLIENT_DELEGATE("client", "delegate"),
+        /** Дополнительные проверки цепочки клиента */
+        CLIENT_CHECKS("client", "omni"),
+        /** Получение цепочки сертификатов из менеджера ключей */
+        KEY_CHAIN("key-manager", "omni");
+
+        private final String side;
+        private final String phase;
+
+        Timing(String side, String phase) {
+            this.side = side;
+            this.phase = phase;
+        }
+
+        String getSide() {
+            return side;
+        }
+
+        String getPhase() {
+            return phase;
+        }
+    }
+
+    /**
+     * Получатель длительностей
+     */
+    @FunctionalInterface
+    interface Recorder {
+        /**
+         * @param timing операция
+         * @param nanos  длительность в наносекундах
+         */
+        void record(Timing timing, long nanos);
+    }
+}
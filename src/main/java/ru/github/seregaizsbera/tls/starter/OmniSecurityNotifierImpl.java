@@ -3,34 +3,49 @@ package ru.github.seregaizsbera.tls.starter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
 import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 /**
- * Реализация {@link OmniSecurityNotifier}. Работает через очередь, разбираемую по таймеру.
+ * Реализация {@link OmniSecurityNotifier}. Работает через очередь без блокировок, разбираемую по таймеру.
  */
 final class OmniSecurityNotifierImpl implements Runnable, OmniSecurityNotifier {
     private static final Logger LOGGER = LoggerFactory.getLogger(OmniSecurityNotifierImpl.class);
-    private static final int CAPACITY = 10;
     private static final long POLL_PERIOD_MS = 60_000L;
     private static final long INITIAL_POLL_DELAY_MS = 10_000L;
     private static final long SPAM_PREVENTION_DELAY_MS = 3_600_000L;
     private static final ReentrantLock lock = new ReentrantLock();
     private static final Supplier<OmniSecurityNotifierImpl> create = OmniSecurityNotifierImpl::create;
     private static Supplier<OmniSecurityNotifierImpl> accessor = create;
-    private final BlockingQueue<OmniX509EventModel> events;
+    private final EventRingBuffer<OmniX509EventModel> events;
     private final EventLimiter eventLimiter;
+    private final EventCoalescer eventCoalescer;
+    /**
+     * Количество событий, принятых в очередь
+     */
+    private final LongAdder accepted = new LongAdder();
+    /**
+     * Количество событий, отброшенных из-за переполнения очереди
+     */
+    private final LongAdder dropped = new LongAdder();
+    /**
+     * Количество событий, отброшенных как повторы до постановки в очередь
+     */
+    private final LongAdder coalesced = new LongAdder();
+    /**
+     * Количество событий, отброшенных {@link EventLimiter} при выводе
+     */
+    private final LongAdder limited = new LongAdder();
 
-    private OmniSecurityNotifierImpl() {
-        this.events = new ArrayBlockingQueue<>(CAPACITY);
-        this.eventLimiter = new EventLimiter(SPAM_PREVENTION_DELAY_MS);
+    private OmniSecurityNotifierImpl(int capacity, int limiterMaxEntries) {
+        this.events = new EventRingBuffer<>(capacity);
+        this.eventLimiter = new EventLimiter(SPAM_PREVENTION_DELAY_MS, limiterMaxEntries);
+        this.eventCoalescer = new EventCoalescer(SPAM_PREVENTION_DELAY_MS, this::enqueue);
     }
 
     private static OmniSecurityNotifierImpl create() {
@@ -39,7 +54,10 @@ final class OmniSecurityNotifierImpl implements Runnable, OmniSecurityNotifier {
             if (accessor != create) {
                 return accessor.get();
             }
-            OmniSecurityNotifierImpl result = new OmniSecurityNotifierImpl();
+            var settings = OmniTlsStarterSettings.getInstance();
+            int capacity = Math.max(1, settings.getQueueCapacity());
+            int limiterMaxEntries = Math.max(1, settings.getLimiterMaxEntries());
+            OmniSecurityNotifierImpl result = new OmniSecurityNotifierImpl(capacity, limiterMaxEntries);
             result.start();
             accessor = () -> result;
             return result;
@@ -49,60 +67,145 @@ final class OmniSecurityNotifierImpl implements Runnable, OmniSecurityNotifier {
     }
 
     private void start() {
-        ThreadFactory threadFactory = r -> {
-            Thread thread = new Thread(r, OmniSecurityNotifierImpl.class.getSimpleName());
-            thread.setDaemon(true);
-            return thread;
-        };
-        Executors.newScheduledThreadPool(1, threadFactory).scheduleAtFixedRate(this, INITIAL_POLL_DELAY_MS, POLL_PERIOD_MS, TimeUnit.MILLISECONDS);
+        OmniExecutors.scheduler().scheduleAtFixedRate(this, INITIAL_POLL_DELAY_MS, POLL_PERIOD_MS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public boolean notify(OmniX509EventModel event) {
-        return events.offer(event);
+        // Повторы того же события для того же сертификата и узла не занимают место в очереди
+        long key = EventCoalescer.keyOf(event);
+        if (!eventCoalescer.acquire(key, event.getTimestamp(), event)) {
+            coalesced.increment();
+            return true;
+        }
+        if (enqueue(event)) {
+            return true;
+        }
+        // Событие не попало в очередь, поэтому его следующее появление не должно считаться повтором
+        eventCoalescer.release(key);
+        return false;
+    }
+
+    private boolean enqueue(OmniX509EventModel event) {
+        if (events.offer(event)) {
+            accepted.increment();
+            return true;
+        }
+        dropped.increment();
+        return false;
     }
 
     @Override
     public boolean isFull() {
-        return events.remainingCapacity() <= 0;
+        return events.isFull();
     }
 
-    @SuppressWarnings("CallToPrintStackTrace")
     @Override
     public void run() {
+        // Итоговые события о повторах за закрывшиеся периоды попадают в очередь и выводятся в этом же разборе
+        eventCoalescer.flush(System.currentTimeMillis());
+        // Обрабатываются только события, поступившие до начала разбора, чтобы не задерживать поток таймера
+        drain(events.size());
+    }
+
+    /**
+     * Извлекает события из очереди пачкой и выводит их в лог. Синхронизация нужна только для того,
+     * чтобы у очереди и {@link EventLimiter} всегда был один потребитель. Производители ее не используют.
+     *
+     * @param limit максимальное количество событий
+     * @return количество извлеченных событий
+     */
+    synchronized int drain(int limit) {
+        var event = new OmniEvents.NotifierDrain();
+        event.begin();
+        int result = events.drain(this::process, limit);
+        event.end();
+        if (event.shouldCommit()) {
+            event.limit = limit;
+            event.drained = result;
+            event.commit();
+        }
+        return result;
+    }
+
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void process(OmniX509EventModel event) {
         try {
-            int cnt = events.size();
-            for (int i = 0; i < cnt && !events.isEmpty(); i++) {
-                OmniX509EventModel event = events.poll();
-                String eventMessage = event.getMessage();
-                String certId = event.getCertificateIdentifier();
-                if (!eventLimiter.accept(certId, eventMessage, event.getTimestamp())) {
-                    continue;
-                }
-                Level level = event.getLevel();
-                switch (level) {
-                    case ERROR:
-                        LOGGER.error("{}", eventMessage);
-                        break;
-                    case WARN:
-                        LOGGER.warn("{}", eventMessage);
-                        break;
-                    case INFO:
-                        LOGGER.info("{}", eventMessage);
-                        break;
-                    case DEBUG:
-                        LOGGER.debug("{}", eventMessage);
-                        break;
-                    case TRACE:
-                        LOGGER.trace("{}", eventMessage);
-                        break;
-                }
+            String certId = event.getCertificateIdentifier();
+            if (!eventLimiter.accept(certId, event.getEventKey(), event.getTimestamp())) {
+                limited.increment();
+                return;
+            }
+            // Текст сообщения формируется только для событий, прошедших ограничитель
+            String eventMessage = event.getMessage();
+            Level level = event.getLevel();
+            switch (level) {
+                case ERROR:
+                    LOGGER.error("{}", eventMessage);
+                    break;
+                case WARN:
+                    LOGGER.warn("{}", eventMessage);
+                    break;
+                case INFO:
+                    LOGGER.info("{}", eventMessage);
+                    break;
+                case DEBUG:
+                    LOGGER.debug("{}", eventMessage);
+                    break;
+                case TRACE:
+                    LOGGER.trace("{}", eventMessage);
+                    break;
             }
         } catch (Exception e) {
+            // Ошибка обработки одного события не должна мешать обработке остальных
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return количество событий в очереди
+     */
+    int getQueueSize() {
+        return events.size();
+    }
+
+    /**
+     * @return количество событий, принятых в очередь
+     */
+    long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return количество событий, отброшенных из-за переполнения очереди
+     */
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return количество событий, отброшенных как повторы до постановки в очередь
+     */
+    long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return количество событий, отброшенных {@link EventLimiter} при выводе
+     */
+    long getLimitedCount() {
+        return limited.sum();
+    }
+
+    /**
+     * Читает счетчик без блокировки, поэтому не ждет окончания разбора очереди.
+     *
+     * @return количество событий, вытесненных из истории {@link EventLimiter} из-за ограничения ее размера
+     */
+    long getLimiterEvictionCount() {
+        return eventLimiter.getEvictionCount();
+    }
+
     static OmniSecurityNotifierImpl getInstance() {
         return accessor.get();
     }
@@ -1,43 +1,77 @@
 package ru.github.seregaizsbera.tls.starter;
 
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Данный класс сохраняет данные о валидируемом сеансе для передачи между
  * компонентами {@link OmniX509ExtendedTrustManager} и {@link OmniCertPathValidatorSpi}.
- * Использует ThreadLocal-переменные.
+ * <p>
+ * Данные действуют только во время вызова стандартного менеджера доверия, внутри которого выполняется
+ * {@link OmniCertPathValidatorSpi}: область открывается перед вызовом в блоке try-with-resources и закрывается после него.
+ * Поэтому данные одного рукопожатия не могут попасть в проверку, не связанную с ним.
+ * <p>
+ * Вместо ThreadLocal используется общая таблица, ключом которой является поток. Запись существует только
+ * во время рукопожатия, поэтому виртуальные потоки, которых может быть по одному на запрос, не получают
+ * собственных таблиц ThreadLocal, которые жили бы до завершения потока.
  */
 final class OmniTLSContext {
-    private static final ThreadLocal<Data> container = new ThreadLocal<>();
+    private static final Map<Thread, Data> container = new ConcurrentHashMap<>();
+
+    private OmniTLSContext() {
+    }
 
     /**
-     * Сохраняет информацию о валидируемом сеансе. Предназначен для вызова из
-     * класса {@link OmniX509ExtendedTrustManager}. Сохраненные данные затем
-     * должны быть извлечены классом {@link OmniCertPathValidatorSpi}.
+     * Сохраняет информацию о валидируемом сеансе на время вызова стандартного менеджера доверия.
+     * Предназначен для вызова из класса {@link OmniX509ExtendedTrustManager} в блоке try-with-resources.
      *
-     * @param connInfo информация о соединении или пустая строка
+     * @param connInfo    информация о соединении или {@link OmniConnectionInfo#NONE}
      * @param chainLength длина полученной с сервера цепочки сертификатов
+     * @return область, при закрытии которой информация удаляется
      */
-    static void push(String connInfo, int chainLength) {
-        container.set(new Data(connInfo, chainLength));
+    static Scope open(OmniConnectionInfo connInfo, int chainLength) {
+        var thread = Thread.currentThread();
+        return new Scope(thread, container.put(thread, new Data(connInfo, chainLength)));
     }
 
     /**
-     * Возвращает информацию, сохраненную методом {@link #push(String, int)},
-     * и удаляет ее. Предназначен для вызова из класса {@link OmniCertPathValidatorSpi}.
+     * Возвращает информацию, сохраненную методом {@link #open(OmniConnectionInfo, int)} в текущем потоке.
+     * Предназначен для вызова из класса {@link OmniCertPathValidatorSpi}.
      *
      * @return Сохраненная информация
      */
-    static Optional<Data> pull() {
-        var result = Optional.ofNullable(container.get());
-        container.remove();
-        return result;
+    static Optional<Data> current() {
+        if (container.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(container.get(Thread.currentThread()));
     }
 
     /**
      * Информация о валидируемом сеансе.
-     * @param connInfo информация о сетевом соединении или пустая строка, если информация недоступна
+     * @param connInfo информация о сетевом соединении или {@link OmniConnectionInfo#NONE}, если информация недоступна
      * @param chainLength длина цепочки сертификатов, полученной с сервера
      */
-    record Data(String connInfo, int chainLength) {}
+    record Data(OmniConnectionInfo connInfo, int chainLength) {}
+
+    /**
+     * Область действия информации о сеансе. Закрывается в том же потоке, в котором открыта.
+     * При закрытии восстанавливается информация внешней области, если области вложены.
+     *
+     * @param thread   поток
+     * @param previous информация внешней области или <code>null</code>
+     */
+    record Scope(Thread thread, Data previous) implements AutoCloseable {
+        @Override
+        public void close() {
+            if (previous == null) {
+                container.remove(thread);
+            } else {
+                container.put(thread, previous);
+            }
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Метрики провайдера для Micrometer.
+ * <p>
+ * Таймеры создаются при привязке к реестру, после чего {@link OmniMetrics} записывает длительности
+ * в уже созданные таймеры. Счетчики очереди событий читаются из {@link OmniSecurityNotifierImpl} только
+ * при снятии метрик.
+ * <ul>
+ *     <li><code>omni.tls.check</code> - длительность проверок менеджера доверия с тегами <code>side</code>
+ *     (server, client) и <code>phase</code> (delegate - стандартный менеджер доверия, omni - дополнительные проверки),
+ *     а также получения цепочки сертификатов менеджером ключей (side=key-manager)</li>
+ *     <li><code>omni.tls.events.queue</code> - количество событий в очереди</li>
+ *     <li><code>omni.tls.events</code> - количество событий с тегом <code>result</code>
+ *     (accepted, dropped, coalesced, limited, limiter-evicted)</li>
+ *     <li><code>omni.tls.certificate.expiry</code> - количество секунд до окончания срока действия проверенного сертификата
+ *     с тегами <code>fingerprint</code> (начало отпечатка SHA-256), <code>cn</code> и <code>side</code>. Количество
+ *     сертификатов ограничено настройкой {@link OmniTlsStarterSettings#getCertificateGaugesMaxCount()}
+ *     (см. {@link CertificateGauges})</li>
+ * </ul>
+ */
+public class OmniTlsMeterBinder implements MeterBinder, CertificateGauges.Listener {
+    /**
+     * Таймеры всех реестров, к которым привязаны метрики, по порядковому номеру операции
+     */
+    private volatile Timer[][] timers = new Timer[0][];
+    private final List<MeterRegistry> registries = new CopyOnWriteArrayList<>();
+    /**
+     * Метрики сроков действия сертификатов во всех реестрах
+     */
+    private final Map<CertificateGauges.Entry, List<Gauge>> certificateGauges = new ConcurrentHashMap<>();
+    private CertificateGauges gauges;
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        var values = OmniMetrics.Timing.values();
+        var registryTimers = new Timer[values.length];
+        for (OmniMetrics.Timing timing : values) {
+            registryTimers[timing.ordinal()] = Timer.builder("omni.tls.check")
+                    .description("Длительность проверок сертификатов")
+                    .tag("side", timing.getSide())
+                    .tag("phase", timing.getPhase())
+                    .register(registry);
+        }
+        var copy = Arrays.copyOf(timers, timers.length + 1);
+        copy[timers.length] = registryTimers;
+        timers = copy;
+        OmniMetrics.setRecorder(this::record);
+
+        var notifier = OmniSecurityNotifierImpl.getInstance();
+        Gauge.builder("omni.tls.events.queue", notifier, OmniSecurityNotifierImpl::getQueueSize)
+                .description("Количество событий в очереди")
+                .register(registry);
+        registerCounter(registry, notifier, "accepted", OmniSecurityNotifierImpl::getAcceptedCount);
+        registerCounter(registry, notifier, "dropped", OmniSecurityNotifierImpl::getDroppedCount);
+        registerCounter(registry, notifier, "coalesced", OmniSecurityNotifierImpl::getCoalescedCount);
+        registerCounter(registry, notifier, "limited", OmniSecurityNotifierImpl::getLimitedCount);
+        registerCounter(registry, notifier, "limiter-evicted", OmniSecurityNotifierImpl::getLimiterEvictionCount);
+
+        registries.add(registry);
+        int maxCount = OmniTlsStarterSettings.getInstance().getCertificateGaugesMaxCount();
+        if (gauges == null && maxCount > 0) {
+            gauges = new CertificateGauges(maxCount, this);
+            OmniMetrics.setCertificateGauges(gauges);
+        } else if (gauges != null) {
+            gauges.forEach(entry -> certificateGauges.get(entry).add(registerGauge(registry, entry)));
+        }
+    }
+
+    @Override
+    public void added(CertificateGauges.Entry entry) {
+        var registered = new CopyOnWriteArrayList<Gauge>();
+        for (MeterRegistry registry : registries) {
+            registered.add(registerGauge(registry, entry));
+        }
+        certificateGauges.put(entry, registered);
+    }
+
+    @Override
+    public void removed(CertificateGauges.Entry entry) {
+        var registered = certificateGauges.remove(entry);
+        if (registered != null) {
+            for (Gauge gauge : registered) {
+                registries.forEach(registry -> registry.remove(gauge));
+            }
+        }
+    }
+
+    private static Gauge registerGauge(MeterRegistry registry, CertificateGauges.Entry entry) {
+        return Gauge.builder("omni.tls.certificate.expiry", entry, CertificateGauges.Entry::secondsUntilNotAfter)
+                .description("Количество секунд до окончания срока действия сертификата")
+                .baseUnit("seconds")
+                .tag("fingerprint", entry.getFingerprint())
+                .tag("cn", entry.getCommonName())
+                .tag("side", entry.getSide())
+                .strongReference(true)
+                .register(registry);
+    }
+
+    private static void registerCounter(MeterRegistry registry, OmniSecurityNotifierImpl notifier, String result,
+                                        ToDoubleFunction<OmniSecurityNotifierImpl> count) {
+        FunctionCounter.builder("omni.tls.events", notifier, count)
+                .description("Количество событий")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private void record(OmniMetrics.Timing timing, long nanos) {
+        for (Timer[] registryTimers : timers) {
+            registryTimers[timing.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -2,7 +2,9 @@ package ru.github.seregaizsbera.tls.starter;
 
 import org.slf4j.event.Level;
 import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
 import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Kind;
 
 import javax.net.ssl.ManagerFactoryParameters;
 import javax.net.ssl.TrustManager;
@@ -22,11 +24,27 @@ import java.util.concurrent.atomic.AtomicReference;
 /**
  * Реализация менеджера доверия в провайдере безопасности {@value OmniSecurityProvider#NAME}. Делегирует вызовы методов
  * провайдеру безопасности {@value #INTERNAL_PROVIDER}, используя при этом алгоритм {@linkplain #ALGORITHM}.
+ * <p>
+ * Фабрики, инициализированные хранилищем сертификатов, кэшируются на уровне процесса по отпечатку содержимого
+ * хранилища. Повторная инициализация тем же набором сертификатов не разбирает хранилище заново и не повторяет
+ * проверку на несамоподписанные сертификаты.
+ * <p>
+ * Если хранилище, которым инициализирована фабрика, указано в {@link OmniTlsStarterSettings#getReloadStores()},
+ * то созданные менеджеры доверия перезагружаются при изменении его файла (см. {@link StoreReloader}).
  */
 public class OmniTrustManagerFactorySpi extends TrustManagerFactorySpi {
     public static final String INTERNAL_PROVIDER = "SunJSSE";
     private static final String ALGORITHM = TrustManagerFactory.getDefaultAlgorithm();
+    /**
+     * Максимальное количество различных хранилищ сертификатов в кэше
+     */
+    private static final int CACHE_CAPACITY = 64;
+    private static final BoundedCache<String, TrustManagerFactory> cache = new BoundedCache<>(CACHE_CAPACITY);
     private final AtomicReference<TrustManagerFactory> tmf = new AtomicReference<>();
+    /**
+     * Отпечаток содержимого хранилища, если созданные менеджеры нужно перезагружать при его изменении
+     */
+    private volatile String storeDigest;
     private final OmniSecurityNotifier notifier;
     private final OmniTlsStarterSettings settings;
     private static final Map<String, String> nonRootCertsToIgnore;
@@ -44,8 +62,23 @@ public class OmniTrustManagerFactorySpi extends TrustManagerFactorySpi {
 
     @Override
     protected void engineInit(KeyStore ks) throws KeyStoreException {
+        var key = cacheKey(ks);
+        if (ks != null && StoreReloader.isEnabled(settings)) {
+            storeDigest = key;
+        }
+        var cached = key == null ? null : cache.get(key);
+        if (cached != null) {
+            if (!tmf.compareAndSet(null, cached)) {
+                throw new IllegalStateException(
+                        String.format("%s: engine already initialized", OmniTrustManagerFactorySpi.class.getSimpleName()));
+            }
+            return;
+        }
         try {
             init(it -> it.init(ks));
+            if (key != null) {
+                cache.put(key, tmf.get());
+            }
         } catch (GeneralSecurityException e) {
             KeyStoreException exception = new KeyStoreException(e);
             exception.setStackTrace(e.getStackTrace());
@@ -73,9 +106,58 @@ public class OmniTrustManagerFactorySpi extends TrustManagerFactorySpi {
         }
         TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
         Arrays.setAll(trustManagers, i -> OmniX509ExtendedTrustManager.wrap(trustManagers[i], notifier, settings));
+        for (var trustManager : trustManagers) {
+            if (trustManager instanceof OmniX509ExtendedTrustManager omniTrustManager) {
+                if (storeDigest != null) {
+                    omniTrustManager.bindStore(storeDigest);
+                    StoreReloader.register(omniTrustManager);
+                }
+                if (StoreScanner.isEnabled(settings)) {
+                    StoreScanner.register(omniTrustManager);
+                }
+            }
+        }
         return trustManagers;
     }
 
+    /**
+     * @param ks хранилище сертификатов или <code>null</code> для хранилища по умолчанию
+     * @return ключ кэша или <code>null</code>, если хранилище нельзя прочитать, и результат не кэшируется
+     */
+    private static String cacheKey(KeyStore ks) {
+        if (ks == null) {
+            return KeyStoreDigest.ofDefaultTrustStore();
+        }
+        try {
+            return KeyStoreDigest.of(ks);
+        } catch (GeneralSecurityException e) {
+            // Ошибку сообщит стандартная фабрика при инициализации
+            return null;
+        }
+    }
+
+    /**
+     * Создает стандартные менеджеры доверия без оберток. Используется при перезагрузке хранилища.
+     *
+     * @param ks       хранилище сертификатов
+     * @param notifier объект, в который передаются предупреждения о несамоподписанных сертификатах
+     * @return менеджеры доверия провайдера {@value #INTERNAL_PROVIDER}
+     * @throws GeneralSecurityException если менеджеры не удалось создать
+     */
+    static TrustManager[] createDelegates(KeyStore ks, OmniSecurityNotifier notifier) throws GeneralSecurityException {
+        var result = TrustManagerFactory.getInstance(ALGORITHM, INTERNAL_PROVIDER);
+        result.init(ks);
+        checkForNonRootCA(result, notifier);
+        return result.getTrustManagers();
+    }
+
+    /**
+     * Очищает кэш фабрик. Используется, если содержимое хранилища по умолчанию изменилось, а время изменения файла - нет.
+     */
+    static void invalidateCache() {
+        cache.clear();
+    }
+
     private void init(TMFConsumer tmfConsumer) throws GeneralSecurityException {
         if (tmf.get() != null) {
             throw new IllegalStateException(
@@ -87,26 +169,29 @@ public class OmniTrustManagerFactorySpi extends TrustManagerFactorySpi {
             throw new IllegalStateException(
                     String.format("%s: engine already initialized", OmniTrustManagerFactorySpi.class.getSimpleName()));
         }
-        checkForNonRootCA(result);
+        checkForNonRootCA(result, notifier);
     }
 
-    private void checkForNonRootCA(TrustManagerFactory result) {
+    private static void checkForNonRootCA(TrustManagerFactory result, OmniSecurityNotifier notifier) {
         for (var tm: result.getTrustManagers()) {
             if (tm instanceof X509TrustManager trustManager) {
                 Arrays.stream(trustManager.getAcceptedIssuers())
                         .filter(it -> !it.getIssuerX500Principal().equals(it.getSubjectX500Principal()))
                         .filter(it -> !Objects.equals(it.getIssuerX500Principal().getName(), nonRootCertsToIgnore.get(it.getSubjectX500Principal().getName())))
-                        .forEach(cert -> {
-                            var msg = String.format(Locale.ROOT, "Среди доверенных сертификатов находится несамоподписанный сертификат издателя %s, выданный %s. Такая конфигурация не рекомендуется в промышленной эксплуатации. (%s)",
-                                    cert.getSubjectX500Principal().getName(),
-                                    cert.getIssuerX500Principal().getName(),
-                                    "fnck");
-                            notifier.notify(new OmniX509EventModel(Level.WARN, msg, cert.getSerialNumber().toString(16)));
-                        });
+                        .forEach(cert -> notifier.notify(new OmniX509EventModel(Level.WARN, Kind.NON_ROOT_CA, null, cert, 0L,
+                                OmniConnectionInfo.NONE, null, OmniTrustManagerFactorySpi::makeNonRootCAMessage)));
             }
         }
     }
 
+    private static String makeNonRootCAMessage(OmniX509EventModel event) {
+        var cert = event.getCertificate();
+        return String.format(Locale.ROOT, "Среди доверенных сертификатов находится несамоподписанный сертификат издателя %s, выданный %s. Такая конфигурация не рекомендуется в промышленной эксплуатации. (%s)",
+                event.getCertificateModel().getSubject(),
+                cert.getIssuerX500Principal().getName(),
+                "fnck");
+    }
+
     private interface TMFConsumer {
         void call(TrustManagerFactory tmf) throws GeneralSecurityException;
     }
@@ -1,22 +1,26 @@
 package ru.github.seregaizsbera.tls.starter;
 
 import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509CertificateModel;
 import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Kind;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
 
-import java.security.cert.CertificateParsingException;
 import java.security.cert.X509Certificate;
-import java.time.Duration;
-import java.time.Instant;
-import java.util.Collection;
-import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * Общие методы для классов, используемых в {@link OmniSecurityProvider}.
  */
 final class OmniX509Commons {
+    /**
+     * Максимальное количество сертификатов, для которых запоминаются моменты пересечения пороговых значений
+     */
+    private static final int EXPIRATION_CACHE_CAPACITY = 4096;
+    private static final BoundedCache<X509Certificate, CertificateExpiration> expirationCache = new BoundedCache<>(EXPIRATION_CACHE_CAPACITY);
+
     private OmniX509Commons() {
     }
 
@@ -24,27 +28,96 @@ final class OmniX509Commons {
      * Проверка сертификатов на время действия. Если сертификат истекает менее, чем через thresholdDays дней,
      * то отдает предупреждение в notifier.
      *
-     * @param type           тип сертификата
+     * @param side           сторона соединения, к которой относится сертификат
      * @param chain          цепочка сертификатов
      * @param settings       Настройки периода срабатывания
      * @param notifier       логгер, в который передать сообщения
+     * @param connectionInfo информация о TCP-соединении для диагностики, преобразуется в текст только при выводе сообщения
+     */
+    static void validateExpiration(Side side, X509Certificate[] chain, OmniTlsStarterSettings settings,
+                                   OmniSecurityNotifier notifier, OmniConnectionInfo connectionInfo) {
+        validateExpiration(side, chain, 0, chain.length, settings, notifier, connectionInfo);
+    }
+
+    /**
+     * Проверка части массива сертификатов на время действия, см.
+     * {@link #validateExpiration(Side, X509Certificate[], OmniTlsStarterSettings, OmniSecurityNotifier, OmniConnectionInfo)}.
+     *
+     * @param side           сторона соединения, к которой относится сертификат
+     * @param certs          сертификаты
+     * @param from           индекс первого проверяемого сертификата
+     * @param to             индекс, следующий за последним проверяемым сертификатом
+     * @param settings       Настройки периода срабатывания
+     * @param notifier       логгер, в который передать сообщения
      * @param connectionInfo информация о TCP-соединении для диагностики
      */
-    static void validateExpiration(String type, X509Certificate[] chain, OmniTlsStarterSettings settings,
-                                   OmniSecurityNotifier notifier, String connectionInfo) {
-        String connInfo = Objects.requireNonNullElse(connectionInfo, "");
-        for (X509Certificate cert: chain) {
-            long days = Duration.between(Instant.now(), cert.getNotAfter().toInstant()).toDays();
-            if (settings.isBelowExpirationThreshold(days)) {
-                String msg = makeMessage(type, connInfo, cert, days);
-                notifier.notify(new OmniX509EventModel(settings.getLevel(days), msg, cert.getSerialNumber().toString(16)));
+    @SuppressWarnings("java:S107")
+    static void validateExpiration(Side side, X509Certificate[] certs, int from, int to, OmniTlsStarterSettings settings,
+                                   OmniSecurityNotifier notifier, OmniConnectionInfo connectionInfo) {
+        var connInfo = Objects.requireNonNullElse(connectionInfo, OmniConnectionInfo.NONE);
+        var thresholds = settings.expirationThresholds();
+        var timer = settings.isExpirationTimer() ? ExpirationTimer.getInstance() : null;
+        var gauges = OmniMetrics.certificateGauges();
+        long now = System.currentTimeMillis();
+        for (int i = from; i < to; i++) {
+            var cert = certs[i];
+            if (timer != null) {
+                timer.observe(cert, side);
+            }
+            if (gauges != null) {
+                gauges.observe(cert, side, now);
             }
+            // Доверенные сертификаты проверяются только периодической проверкой хранилищ. Их бывают тысячи,
+            // и в кэше они вытесняли бы сертификаты, которые проверяются в каждом рукопожатии
+            var expiration = side == Side.TRUST_STORE ? CertificateExpiration.of(cert, thresholds) : getExpiration(cert, thresholds);
+            if (expiration.isBelowThreshold(now)) {
+                notifier.notify(new OmniX509EventModel(expiration.level(now), Kind.EXPIRATION, side, cert, expiration.days(now),
+                        connInfo, null, OmniX509Commons::makeMessage));
+            }
+        }
+    }
+
+    /**
+     * Возвращает моменты пересечения сертификатом пороговых значений. Они вычисляются один раз
+     * для сертификата и снимка пороговых значений, поэтому повторная проверка уже известного сертификата
+     * стоит одного обращения к кэшу.
+     *
+     * @param cert       сертификат
+     * @param thresholds текущие пороговые значения
+     * @return моменты пересечения пороговых значений
+     */
+    static CertificateExpiration getExpiration(X509Certificate cert, OmniTlsStarterSettings.Thresholds thresholds) {
+        var expiration = expirationCache.get(cert);
+        if (expiration == null || !expiration.isComputedFor(thresholds)) {
+            expiration = CertificateExpiration.of(cert, thresholds);
+            expirationCache.put(cert, expiration);
         }
+        return expiration;
+    }
+
+    /**
+     * Формирует текст сообщения о событии {@link Kind#EXPIRATION}.
+     *
+     * @param event событие
+     * @return текст сообщения
+     */
+    private static String makeMessage(OmniX509EventModel event) {
+        return formatExpiration(event.getSide(), event.getCertificateModel(), event.getDays(), event.getConnectionInfo());
     }
 
-    private static String makeMessage(String type, String connInfo, X509Certificate cert, long days) {
-        var principal = cert.getSubjectX500Principal().getName();
-        var subject = extractSAN(cert);
+    /**
+     * Формирует текст сообщения об истечении срока действия сертификата.
+     *
+     * @param side     сторона соединения
+     * @param cert     сведения о сертификате
+     * @param days     количество дней до истечения срока действия
+     * @param connInfo информация о соединении
+     * @return текст сообщения
+     */
+    static String formatExpiration(Side side, OmniX509CertificateModel cert, long days, OmniConnectionInfo connInfo) {
+        var type = side.getTitle();
+        var principal = cert.getSubject();
+        var subject = cert.getSubjectAlternativeNames();
         String format = "%1$s %2$s сертификат %3$s";
         long d = days;
         if (days > 0) {
@@ -65,28 +138,12 @@ final class OmniX509Commons {
      * Возвращает список subjectAlternateNames сертификата в виде строки в скобках.
      * Если список пуст, возвращает пустую строку.
      * Если имен много, то берутся несколько первых элементов, и добавляется многоточие.
+     * Результат вычисляется один раз для сертификата, см. {@link OmniX509CertificateModel}.
      *
      * @param cert сертификат
      * @return список имен в виде строки
      */
     static String extractSAN(X509Certificate cert) {
-        try {
-            Collection<List<?>> sans = cert.getSubjectAlternativeNames();
-            if (sans == null) {
-                return "";
-            }
-            int maxElements = 3; // используются только первые maxElements имен, чтобы не захламлять лог
-            String suffix = sans.size() <= maxElements ? ")" : "...)";
-            return sans
-                    .stream()
-                    .flatMap(Collection::stream)
-                    .filter(String.class::isInstance)
-                    .limit(maxElements)
-                    .map(Object::toString)
-                    .collect(Collectors.joining(",", " (", suffix));
-        } catch (CertificateParsingException e) {
-            // Если не удалось извлечь из сертификата доп. имена, то считается, что их нет
-            return "";
-        }
+        return OmniX509CertificateModel.of(cert).getSubjectAlternativeNames();
     }
 }
@@ -1,27 +1,65 @@
 package ru.github.seregaizsbera.tls.starter;
 
 import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509CertificateModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.X509ExtendedKeyManager;
 import javax.net.ssl.X509KeyManager;
 import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
 import java.security.Principal;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Менеджер ключей осуществляет дополнительные проверки сертификатов, которые предоставляет стандартный
  * менеджер ключей {@linkplain X509ExtendedKeyManager}. Результаты проверок отправляются в {@link OmniSecurityNotifier},
+ * <p>
+ * Сертификаты проверяются один раз для каждой цепочки, после чего результат проверки запоминается до момента,
+ * когда он может измениться (см. {@link CertificateExpiration#nextChange(long)}). До этого момента
+ * {@link #getCertificateChain(String)} только вызывает стандартный менеджер ключей. Результаты запоминаются
+ * по отпечаткам сертификатов цепочки, а не по псевдониму, т. к. стандартный менеджер ключей PKIX
+ * возвращает при каждом выборе новый псевдоним для той же записи хранилища.
+ * <p>
+ * Стандартный менеджер ключей может быть заменен при изменении файла хранилища (см. {@link StoreReloader}).
  */
-class OmniX509ExtendedKeyManager extends X509ExtendedKeyManager {
-    private final X509ExtendedKeyManager keyManager;
+class OmniX509ExtendedKeyManager extends X509ExtendedKeyManager implements StoreReloader.Reloadable {
+    /**
+     * Типы ключей, для которых запрашиваются псевдонимы при предварительной проверке
+     */
+    private static final String[] KEY_TYPES = {"RSA", "RSASSA-PSS", "EC", "EdDSA", "DSA"};
+    /**
+     * Максимальное количество запоминаемых результатов проверки цепочек
+     */
+    private static final int VERDICTS_CAPACITY = 256;
+    /**
+     * Стандартный менеджер ключей вместе с индексом его серверных псевдонимов. Заменяется целиком одной записью,
+     * поэтому рукопожатие никогда не видит индекс, построенный по другому менеджеру.
+     */
+    private volatile Delegate delegate;
     private final OmniSecurityNotifier notifier;
     private final OmniTlsStarterSettings settings;
+    /**
+     * Результаты проверки цепочек сертификатов по отпечаткам сертификатов цепочки
+     */
+    private final BoundedCache<List<String>, ChainVerdict> verdicts = new BoundedCache<>(VERDICTS_CAPACITY);
+    /**
+     * Отпечаток содержимого хранилища, из которого создан стандартный менеджер ключей, или <code>null</code>
+     */
+    private volatile String storeDigest;
 
     private OmniX509ExtendedKeyManager(X509ExtendedKeyManager keyManager, OmniSecurityNotifier notifier, OmniTlsStarterSettings settings) {
-        this.keyManager = keyManager;
+        this.delegate = new Delegate(keyManager, null);
         this.notifier = notifier;
         this.settings = settings;
     }
@@ -32,7 +70,7 @@ class OmniX509ExtendedKeyManager extends X509ExtendedKeyManager {
      *
      * @param keyManager менеджер ключей, который необходимо обернуть
      * @param notifier   объект, в который будут передаваться ошибки проверок
-     * @return обертку над менеджером ключей или исходный {@linkplain #keyManager}.
+     * @return обертку над менеджером ключей или исходный объект.
      */
     static KeyManager wrap(KeyManager keyManager, OmniSecurityNotifier notifier, OmniTlsStarterSettings settings) {
         if (keyManager instanceof OmniX509ExtendedKeyManager) {
@@ -42,93 +80,264 @@ class OmniX509ExtendedKeyManager extends X509ExtendedKeyManager {
             return new OmniX509ExtendedKeyManager(x509ExtendedKeyManager, notifier, settings);
         }
         if (keyManager instanceof X509KeyManager x509KeyManager) {
-            var x509ExtendedKeyManager = new X509ExtendedKeyManager() {
-                @Override
-                public String[] getClientAliases(String keyType, Principal[] issuers) {
-                    return x509KeyManager.getClientAliases(keyType, issuers);
-                }
-
-                @Override
-                public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
-                    return x509KeyManager.chooseClientAlias(keyType, issuers, socket);
-                }
-
-                @Override
-                public String[] getServerAliases(String keyType, Principal[] issuers) {
-                    return x509KeyManager.getServerAliases(keyType, issuers);
-                }
-
-                @Override
-                public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
-                    return x509KeyManager.chooseServerAlias(keyType, issuers, socket);
-                }
-
-                @Override
-                public X509Certificate[] getCertificateChain(String alias) {
-                    return x509KeyManager.getCertificateChain(alias);
-                }
-
-                @Override
-                public PrivateKey getPrivateKey(String alias) {
-                    return x509KeyManager.getPrivateKey(alias);
-                }
-
-                @Override
-                public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
-                    return x509KeyManager.chooseClientAlias(keyType, issuers, null);
-                }
-
-                @Override
-                public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
-                    return x509KeyManager.chooseServerAlias(keyType, issuers, null);
-                }
-            };
-            return new OmniX509ExtendedKeyManager(x509ExtendedKeyManager, notifier, settings);
+            return new OmniX509ExtendedKeyManager(extend(x509KeyManager), notifier, settings);
         }
         return keyManager;
     }
 
+    /**
+     * Приводит менеджер ключей к {@linkplain X509ExtendedKeyManager}.
+     *
+     * @param x509KeyManager менеджер ключей
+     * @return исходный объект, если он является экземпляром {@linkplain X509ExtendedKeyManager}, или адаптер
+     */
+    private static X509ExtendedKeyManager extend(X509KeyManager x509KeyManager) {
+        if (x509KeyManager instanceof X509ExtendedKeyManager x509ExtendedKeyManager) {
+            return x509ExtendedKeyManager;
+        }
+        return new X509ExtendedKeyManager() {
+            @Override
+            public String[] getClientAliases(String keyType, Principal[] issuers) {
+                return x509KeyManager.getClientAliases(keyType, issuers);
+            }
+
+            @Override
+            public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+                return x509KeyManager.chooseClientAlias(keyType, issuers, socket);
+            }
+
+            @Override
+            public String[] getServerAliases(String keyType, Principal[] issuers) {
+                return x509KeyManager.getServerAliases(keyType, issuers);
+            }
+
+            @Override
+            public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+                return x509KeyManager.chooseServerAlias(keyType, issuers, socket);
+            }
+
+            @Override
+            public X509Certificate[] getCertificateChain(String alias) {
+                return x509KeyManager.getCertificateChain(alias);
+            }
+
+            @Override
+            public PrivateKey getPrivateKey(String alias) {
+                return x509KeyManager.getPrivateKey(alias);
+            }
+
+            @Override
+            public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+                return x509KeyManager.chooseClientAlias(keyType, issuers, null);
+            }
+
+            @Override
+            public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+                return x509KeyManager.chooseServerAlias(keyType, issuers, null);
+            }
+        };
+    }
+
     @Override
     public String[] getClientAliases(String keyType, Principal[] issuers) {
-        return keyManager.getClientAliases(keyType, issuers);
+        return delegate.keyManager().getClientAliases(keyType, issuers);
     }
 
     @Override
     public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
-        return keyManager.chooseClientAlias(keyType, issuers, socket);
+        return delegate.keyManager().chooseClientAlias(keyType, issuers, socket);
     }
 
     @Override
     public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
-        return keyManager.chooseEngineClientAlias(keyType, issuers, engine);
+        return delegate.keyManager().chooseEngineClientAlias(keyType, issuers, engine);
     }
 
     @Override
     public String[] getServerAliases(String keyType, Principal[] issuers) {
-        return keyManager.getServerAliases(keyType, issuers);
+        return delegate.keyManager().getServerAliases(keyType, issuers);
     }
 
     @Override
     public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
-        return keyManager.chooseServerAlias(keyType, issuers, socket);
+        var current = delegate;
+        var index = current.serverAliasIndex();
+        if (index != null && isEmpty(issuers) && socket instanceof SSLSocket sslSocket) {
+            var alias = index.choose(keyType, sslSocket.getHandshakeSession(), System.currentTimeMillis());
+            if (alias != null) {
+                return alias;
+            }
+        }
+        return current.keyManager().chooseServerAlias(keyType, issuers, socket);
     }
 
     @Override
     public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
-        return keyManager.chooseEngineServerAlias(keyType, issuers, engine);
+        var current = delegate;
+        var index = current.serverAliasIndex();
+        if (index != null && isEmpty(issuers) && engine != null) {
+            var alias = index.choose(keyType, engine.getHandshakeSession(), System.currentTimeMillis());
+            if (alias != null) {
+                return alias;
+            }
+        }
+        return current.keyManager().chooseEngineServerAlias(keyType, issuers, engine);
+    }
+
+    private static boolean isEmpty(Principal[] issuers) {
+        return issuers == null || issuers.length == 0;
+    }
+
+    /**
+     * Строит индекс серверных псевдонимов по имени узла из расширения SNI. После этого серверный псевдоним
+     * выбирается по индексу, а стандартный менеджер ключей используется, только если в индексе нет подходящего
+     * псевдонима или клиент ограничил список издателей.
+     */
+    synchronized void indexServerAliases() {
+        var keyManager = delegate.keyManager();
+        delegate = new Delegate(keyManager, SniAliasIndex.build(keyManager, KEY_TYPES));
+    }
+
+    /**
+     * Проверяет цепочки сертификатов всех псевдонимов, известных стандартному менеджеру ключей.
+     * Вызывается один раз при создании менеджеров ключей в {@link OmniKeyManagerFactorySpi}.
+     */
+    void validateAliases() {
+        var keyManager = delegate.keyManager();
+        Set<String> aliases = new LinkedHashSet<>();
+        for (String keyType : KEY_TYPES) {
+            addAll(aliases, keyManager.getServerAliases(keyType, null));
+            addAll(aliases, keyManager.getClientAliases(keyType, null));
+        }
+        for (String alias : aliases) {
+            var chain = keyManager.getCertificateChain(alias);
+            if (chain != null) {
+                validate(chainKey(chain), chain);
+            }
+        }
+    }
+
+    private static void addAll(Set<String> aliases, String[] values) {
+        if (values != null) {
+            aliases.addAll(Set.of(values));
+        }
     }
 
     @Override
     public X509Certificate[] getCertificateChain(String alias) {
-        X509Certificate[] chain = keyManager.getCertificateChain(alias);
-        if (!notifier.isFull()) {
-            OmniX509Commons.validateExpiration("KeyManager", chain, settings, notifier, "");
+        var event = new OmniEvents.KeyChainLookup();
+        event.begin();
+        long started = OmniMetrics.start();
+        X509Certificate[] chain = delegate.keyManager().getCertificateChain(alias);
+        boolean cached = true;
+        if (chain != null && alias != null) {
+            var key = chainKey(chain);
+            var verdict = verdicts.get(key);
+            if (verdict == null || !verdict.isValid(System.currentTimeMillis(), settings.expirationThresholds())) {
+                cached = false;
+                validate(key, chain);
+            }
+        }
+        OmniMetrics.stop(OmniMetrics.Timing.KEY_CHAIN, started);
+        event.end();
+        if (event.shouldCommit()) {
+            event.alias = alias;
+            event.chainLength = chain == null ? 0 : chain.length;
+            event.cached = cached;
+            event.commit();
         }
         return chain;
     }
 
+    /**
+     * @return отпечатки сертификатов цепочки. Отпечатки кешируются моделью сертификата, поэтому сертификаты
+     * повторно не хешируются
+     */
+    private static List<String> chainKey(X509Certificate[] chain) {
+        var fingerprints = new String[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            fingerprints[i] = OmniX509CertificateModel.of(chain[i]).getFingerprint();
+        }
+        return List.of(fingerprints);
+    }
+
+    /**
+     * Проверяет цепочку сертификатов и запоминает момент, до которого результат проверки не изменится.
+     * Если очередь событий заполнена, то результат не запоминается, и проверка повторится при следующем обращении.
+     *
+     * @param key   отпечатки сертификатов цепочки
+     * @param chain цепочка сертификатов
+     */
+    private void validate(List<String> key, X509Certificate[] chain) {
+        if (notifier.isFull()) {
+            return;
+        }
+        var thresholds = settings.expirationThresholds();
+        long now = System.currentTimeMillis();
+        OmniX509Commons.validateExpiration(Side.KEY_MANAGER, chain, settings, notifier, OmniConnectionInfo.NONE);
+        long validUntil = Long.MAX_VALUE;
+        for (X509Certificate cert : chain) {
+            validUntil = Math.min(validUntil, OmniX509Commons.getExpiration(cert, thresholds).nextChange(now));
+        }
+        verdicts.put(key, new ChainVerdict(thresholds, validUntil));
+    }
+
     @Override
     public PrivateKey getPrivateKey(String alias) {
-        return keyManager.getPrivateKey(alias);
+        return delegate.keyManager().getPrivateKey(alias);
+    }
+
+    /**
+     * Связывает обертку с хранилищем, из которого создан стандартный менеджер ключей.
+     *
+     * @param storeDigest отпечаток содержимого хранилища
+     */
+    void bindStore(String storeDigest) {
+        this.storeDigest = storeDigest;
+    }
+
+    @Override
+    public String getStoreDigest() {
+        return storeDigest;
+    }
+
+    @Override
+    public synchronized void reload(KeyStore ks, char[] password, String storeDigest) throws GeneralSecurityException {
+        X509ExtendedKeyManager keyManager = null;
+        for (KeyManager candidate : OmniKeyManagerFactorySpi.createDelegates(ks, password)) {
+            if (candidate instanceof X509KeyManager x509KeyManager) {
+                keyManager = extend(x509KeyManager);
+                break;
+            }
+        }
+        if (keyManager == null) {
+            throw new KeyStoreException("Стандартная фабрика не создала менеджер ключей X.509");
+        }
+        // Индекс строится до замены, и новый менеджер публикуется вместе с индексом своих псевдонимов
+        var index = delegate.serverAliasIndex() == null ? null : SniAliasIndex.build(keyManager, KEY_TYPES);
+        delegate = new Delegate(keyManager, index);
+        this.storeDigest = storeDigest;
+        verdicts.clear();
+        validateAliases();
+    }
+
+    /**
+     * Стандартный менеджер ключей и индекс его серверных псевдонимов
+     *
+     * @param keyManager       стандартный менеджер ключей
+     * @param serverAliasIndex индекс серверных псевдонимов по имени узла или <code>null</code>, если индекс не используется
+     */
+    private record Delegate(X509ExtendedKeyManager keyManager, SniAliasIndex serverAliasIndex) {}
+
+    /**
+     * Результат проверки одной цепочки сертификатов
+     *
+     * @param thresholds пороговые значения, для которых выполнена проверка
+     * @param validUntil момент, начиная с которого результат может измениться
+     */
+    private record ChainVerdict(OmniTlsStarterSettings.Thresholds thresholds, long validUntil) {
+        boolean isValid(long now, OmniTlsStarterSettings.Thresholds currentThresholds) {
+            return now < validUntil && thresholds == currentThresholds;
+        }
     }
 }
@@ -1,28 +1,56 @@
 package ru.github.seregaizsbera.tls.starter;
 
 import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.OmniMetrics.Timing;
 import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
 import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Kind;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509ExtendedTrustManager;
 import javax.net.ssl.X509TrustManager;
 import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Locale;
-import java.util.Optional;
 
 /**
  * Менеджер доверия осуществляет дополнительные проверки сертификатов, которые предоставляет стандартный
  * менеджер доверия {@linkplain X509ExtendedTrustManager}. Результаты проверок отправляются в {@link OmniSecurityNotifier},
+ * <p>
+ * Стандартный менеджер доверия может быть заменен при изменении файла хранилища (см. {@link StoreReloader}).
+ * <p>
+ * Если включена настройка {@link OmniTlsStarterSettings#isDeferredEngineValidation()}, то для соединений
+ * через {@link SSLEngine} в потоке рукопожатия остается только проверка стандартным менеджером доверия,
+ * а дополнительные проверки уже принятой цепочки выполняются в фоновом потоке {@link OmniExecutors#validation()}.
+ * Это нужно для неблокирующих серверов и клиентов, у которых рукопожатие выполняется в потоках ввода-вывода.
+ * <p>
+ * Если включена настройка {@link OmniTlsStarterSettings#isVerifiedChainCache()}, то успешные проверки
+ * стандартным менеджером доверия запоминаются в {@link VerifiedChainCache}, и повторные рукопожатия с той же
+ * цепочкой для того же узла не выполняют проверку PKIX. Дополнительные проверки выполняются в любом случае.
+ * <p>
+ * Длительности проверки стандартным менеджером доверия и дополнительных проверок записываются в {@link OmniMetrics},
+ * проверки целиком - в события JFR {@link OmniEvents.TrustCheck}. Неуспешные проверки записываются только в события JFR
+ * с признаком неуспешной проверки.
  */
-class OmniX509ExtendedTrustManager extends X509ExtendedTrustManager {
-    private final X509ExtendedTrustManager trustManager;
+class OmniX509ExtendedTrustManager extends X509ExtendedTrustManager implements StoreReloader.Reloadable {
+    private volatile X509ExtendedTrustManager trustManager;
     private final OmniSecurityNotifier notifier;
     private final OmniTlsStarterSettings settings;
     private final OmniTlsStarterSettings.Mode mode;
+    /**
+     * Отпечаток содержимого хранилища, из которого создан стандартный менеджер доверия, или <code>null</code>
+     */
+    private volatile String storeDigest;
+    /**
+     * Успешные проверки цепочек стандартным менеджером доверия (см. {@link OmniTlsStarterSettings#isVerifiedChainCache()})
+     */
+    private final VerifiedChainCache verifiedChains = new VerifiedChainCache();
 
     private OmniX509ExtendedTrustManager(X509ExtendedTrustManager trustManager, OmniSecurityNotifier notifier, OmniTlsStarterSettings settings) {
         this.trustManager = trustManager;
@@ -49,110 +77,193 @@ class OmniX509ExtendedTrustManager extends X509ExtendedTrustManager {
             return new OmniX509ExtendedTrustManager(x509ExtendedTrustManager, notifier, settings);
         }
         if (trustManager instanceof X509TrustManager x509TrustManager) {
-            var x509ExtendedTrustManager = new X509ExtendedTrustManager() {
-                @Override
-                public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
-                    x509TrustManager.checkClientTrusted(chain, authType);
-                }
-                @Override
-                public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
-                    x509TrustManager.checkServerTrusted(chain, authType);
-                }
-                @Override
-                public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
-                    x509TrustManager.checkClientTrusted(chain, authType);
-                }
-                @Override
-                public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
-                    x509TrustManager.checkServerTrusted(chain, authType);
-                }
-                @Override
-                public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                    x509TrustManager.checkClientTrusted(chain, authType);
-                }
-                @Override
-                public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                    x509TrustManager.checkServerTrusted(chain, authType);
-                }
-                @Override
-                public X509Certificate[] getAcceptedIssuers() {
-                    return x509TrustManager.getAcceptedIssuers();
-                }
-            };
-            return new OmniX509ExtendedTrustManager(x509ExtendedTrustManager, notifier, settings);
+            return new OmniX509ExtendedTrustManager(extend(x509TrustManager), notifier, settings);
         }
         return trustManager;
     }
 
+    /**
+     * Приводит менеджер доверия к {@linkplain X509ExtendedTrustManager}.
+     *
+     * @param x509TrustManager менеджер доверия
+     * @return исходный объект, если он является экземпляром {@linkplain X509ExtendedTrustManager}, или адаптер
+     */
+    private static X509ExtendedTrustManager extend(X509TrustManager x509TrustManager) {
+        if (x509TrustManager instanceof X509ExtendedTrustManager x509ExtendedTrustManager) {
+            return x509ExtendedTrustManager;
+        }
+        return new X509ExtendedTrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+                x509TrustManager.checkClientTrusted(chain, authType);
+            }
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+                x509TrustManager.checkServerTrusted(chain, authType);
+            }
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+                x509TrustManager.checkClientTrusted(chain, authType);
+            }
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+                x509TrustManager.checkServerTrusted(chain, authType);
+            }
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                x509TrustManager.checkClientTrusted(chain, authType);
+            }
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                x509TrustManager.checkServerTrusted(chain, authType);
+            }
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return x509TrustManager.getAcceptedIssuers();
+            }
+        };
+    }
+
     @Override
     public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        check(Side.SERVER, chain, authType, null, null, tm -> tm.checkServerTrusted(chain, authType));
+    }
+
+    /**
+     * Проверяет цепочку стандартным менеджером доверия, если успешная проверка не запомнена в кэше,
+     * и выполняет дополнительные проверки. Ошибки проверки цепочки сервера обрабатываются согласно режиму работы,
+     * ошибки проверки цепочки клиента передаются вызывающему коду.
+     *
+     * @param side          сторона соединения, сертификаты которой проверяются
+     * @param chain         цепочка сертификатов
+     * @param authType      тип аутентификации
+     * @param socket        сокет или <code>null</code>
+     * @param engine        SSLEngine или <code>null</code>
+     * @param delegateCheck вызов соответствующего метода стандартного менеджера доверия
+     */
+    @SuppressWarnings("try") // область используется только для закрытия
+    private void check(Side side, X509Certificate[] chain, String authType, Socket socket, SSLEngine engine,
+                       DelegateCheck delegateCheck) throws CertificateException {
+        boolean server = side == Side.SERVER;
+        var connectionInfo = OmniConnectionInfo.of(socket, engine);
+        var key = verifiedChainKey(side, chain, authType, socket, engine);
+        var event = new OmniEvents.TrustCheck();
+        event.begin();
+        long started = OmniMetrics.start();
+        boolean cached = isVerified(key);
+        boolean success = cached;
         try {
-            trustManager.checkServerTrusted(chain, authType);
-        } catch (CertificateException e) {
-            throwOrNotify(e, chain, null, null);
+            if (!cached && server) {
+                try (var scope = OmniTLSContext.open(connectionInfo, chainLength(chain))) {
+                    delegateCheck.check(trustManager);
+                    rememberVerified(key, chain);
+                    success = true;
+                } catch (CertificateException e) {
+                    throwOrNotify(e, chain, connectionInfo);
+                }
+            } else if (!cached) {
+                delegateCheck.check(trustManager);
+                rememberVerified(key, chain);
+                success = true;
+            }
+            started = OmniMetrics.stop(server ? Timing.SERVER_DELEGATE : Timing.CLIENT_DELEGATE, started);
+            if (!notifier.isFull()) {
+                validateExpiration(side, chain, connectionInfo, engine != null);
+            }
+            OmniMetrics.stop(server ? Timing.SERVER_CHECKS : Timing.CLIENT_CHECKS, started);
+        } finally {
+            // Неуспешные проверки тоже записываются: по ним определяется длительность отклоненных рукопожатий
+            commit(event, side, authType, chain, cached, success, connectionInfo);
+        }
+    }
+
+    /**
+     * Вызов метода стандартного менеджера доверия
+     */
+    @FunctionalInterface
+    private interface DelegateCheck {
+        void check(X509ExtendedTrustManager trustManager) throws CertificateException;
+    }
+
+    /**
+     * @return ключ кэша проверенных цепочек или <code>null</code>, если кэш выключен, или проверку нельзя кэшировать
+     */
+    private VerifiedChainCache.Key verifiedChainKey(Side side, X509Certificate[] chain, String authType, Socket socket, SSLEngine engine) {
+        if (!settings.isVerifiedChainCache()) {
+            return null;
+        }
+        return VerifiedChainCache.keyOf(side, chain, authType, socket, engine);
+    }
+
+    private boolean isVerified(VerifiedChainCache.Key key) {
+        return key != null && verifiedChains.isVerified(key, System.currentTimeMillis());
+    }
+
+    private void rememberVerified(VerifiedChainCache.Key key, X509Certificate[] chain) {
+        if (key != null) {
+            verifiedChains.put(key, chain, System.currentTimeMillis(), settings.getVerifiedChainCacheMaxAgeSeconds() * 1000L);
         }
-        if (!notifier.isFull()) {
-            performServerValidations(chain, null, null);
+    }
+
+    /**
+     * Записывает событие JFR, если запись включена. Сведения о соединении преобразуются в текст только для записываемых событий.
+     */
+    private static void commit(OmniEvents.TrustCheck event, Side side, String authType, X509Certificate[] chain, boolean cached,
+                               boolean success, OmniConnectionInfo connectionInfo) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.side = side.name();
+            event.authType = authType;
+            event.chainLength = chainLength(chain);
+            event.cached = cached;
+            event.success = success;
+            event.peer = connectionInfo.toString();
+            event.commit();
         }
     }
 
-    private void throwOrNotify(CertificateException e, X509Certificate[] chain, Socket socket, SSLEngine engine) throws CertificateException {
+    private static int chainLength(X509Certificate[] chain) {
+        return chain == null ? 0 : chain.length;
+    }
+
+    private void throwOrNotify(CertificateException e, X509Certificate[] chain, OmniConnectionInfo connectionInfo) throws CertificateException {
         if (mode.bypass(e)) {
-            var connInfo = getConnectionInfo(socket, engine);
-            var connPrefix = connInfo.isEmpty() ? "" : " ";
-            var cert = chain[0];
-            notifier.notify(new OmniX509EventModel(Level.ERROR, e.getMessage() + " " + cert.getSubjectX500Principal().getName() + connPrefix + connInfo, cert.getSerialNumber().toString(16)));
+            notifier.notify(new OmniX509EventModel(Level.ERROR, Kind.TRUST_FAILURE, Side.SERVER, chain[0], 0L,
+                    connectionInfo, e.getMessage(), OmniX509ExtendedTrustManager::makeTrustFailureMessage));
         } else {
             throw e;
         }
     }
 
+    private static String makeTrustFailureMessage(OmniX509EventModel event) {
+        var connInfo = event.getConnectionInfo();
+        var connPrefix = connInfo.isEmpty() ? "" : " ";
+        return event.getDetail() + " " + event.getCertificateModel().getSubject() + connPrefix + connInfo;
+    }
+
     @Override
     public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
-        try {
-            trustManager.checkServerTrusted(chain, authType, socket);
-        } catch (CertificateException e) {
-            throwOrNotify(e, chain, socket, null);
-        }
-        if (!notifier.isFull()) {
-            performServerValidations(chain, socket, null);
-        }
+        check(Side.SERVER, chain, authType, socket, null, tm -> tm.checkServerTrusted(chain, authType, socket));
     }
 
     @Override
     public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
-        try {
-            trustManager.checkServerTrusted(chain, authType, engine);
-        } catch (CertificateException e) {
-            throwOrNotify(e, chain, null, engine);
-        }
-        if (!notifier.isFull()) {
-            performServerValidations(chain, null, engine);
-        }
+        check(Side.SERVER, chain, authType, null, engine, tm -> tm.checkServerTrusted(chain, authType, engine));
     }
 
     @Override
     public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-        trustManager.checkClientTrusted(chain, authType);
-        if (!notifier.isFull()) {
-            performClientValidations(chain, null, null);
-        }
+        check(Side.CLIENT, chain, authType, null, null, tm -> tm.checkClientTrusted(chain, authType));
     }
 
     @Override
     public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
-        trustManager.checkClientTrusted(chain, authType, socket);
-        if (!notifier.isFull()) {
-            performClientValidations(chain, socket, null);
-        }
+        check(Side.CLIENT, chain, authType, socket, null, tm -> tm.checkClientTrusted(chain, authType, socket));
     }
 
     @Override
     public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
-        trustManager.checkClientTrusted(chain, authType, engine);
-        if (!notifier.isFull()) {
-            performClientValidations(chain, null, engine);
-        }
+        check(Side.CLIENT, chain, authType, null, engine, tm -> tm.checkClientTrusted(chain, authType, engine));
     }
 
     @Override
@@ -160,25 +271,52 @@ class OmniX509ExtendedTrustManager extends X509ExtendedTrustManager {
         return trustManager.getAcceptedIssuers();
     }
 
-    private void performServerValidations(X509Certificate[] chain, Socket socket, SSLEngine engine) {
-        String connectionInfo = getConnectionInfo(socket, engine);
-        OmniX509Commons.validateExpiration("Серверный", chain, settings, notifier, connectionInfo);
-        OmniTLSContext.push(connectionInfo, chain.length);
+    /**
+     * Связывает обертку с хранилищем, из которого создан стандартный менеджер доверия.
+     *
+     * @param storeDigest отпечаток содержимого хранилища
+     */
+    void bindStore(String storeDigest) {
+        this.storeDigest = storeDigest;
     }
 
-    private static String getConnectionInfo(Socket socket, SSLEngine engine) {
-        var socketInfo = Optional.ofNullable(socket)
-                .map(s -> String.format(Locale.ROOT, "%s:%d:%s:%d", s.getLocalAddress().getHostAddress(),
-                        s.getLocalPort(), s.getInetAddress().getHostAddress(), s.getPort()))
-                .orElse("");
-        var engineInfo = Optional.ofNullable(engine)
-                .map(s -> String.format(Locale.ROOT, "%s:%d", s.getPeerHost(), s.getPeerPort()))
-                .orElse("");
-        return socketInfo + engineInfo;
+    @Override
+    public String getStoreDigest() {
+        return storeDigest;
     }
 
-    private void performClientValidations(X509Certificate[] chain, Socket socket, SSLEngine engine) {
-        var connectionInfo = getConnectionInfo(socket, engine);
-        OmniX509Commons.validateExpiration("Клиентский", chain, settings, notifier, connectionInfo);
+    @Override
+    public void reload(KeyStore ks, char[] password, String storeDigest) throws GeneralSecurityException {
+        for (TrustManager candidate : OmniTrustManagerFactorySpi.createDelegates(ks, notifier)) {
+            if (candidate instanceof X509TrustManager x509TrustManager) {
+                trustManager = extend(x509TrustManager);
+                this.storeDigest = storeDigest;
+                // Цепочки, принятые старым менеджером, могут не приниматься новым
+                verifiedChains.clear();
+                return;
+            }
+        }
+        throw new KeyStoreException("Стандартная фабрика не создала менеджер доверия X.509");
+    }
+
+    /**
+     * Проверяет сроки действия сертификатов сразу или в фоновом потоке.
+     * Сведения о соединении запоминаются заранее в потоке рукопожатия, т. к. {@link SSLEngine} не следует
+     * использовать из других потоков.
+     *
+     * @param side           сторона соединения
+     * @param chain          цепочка сертификатов, уже принятая стандартным менеджером доверия
+     * @param connectionInfo информация о соединении
+     * @param deferrable     признак того, что проверку можно отложить
+     */
+    private void validateExpiration(Side side, X509Certificate[] chain, OmniConnectionInfo connectionInfo, boolean deferrable) {
+        if (deferrable && settings.isDeferredEngineValidation()) {
+            // Вызывающий код может повторно использовать массив, поэтому в фоновый поток передается копия
+            var trustedChain = chain.clone();
+            OmniExecutors.validation().execute(() ->
+                    OmniX509Commons.validateExpiration(side, trustedChain, settings, notifier, connectionInfo));
+        } else {
+            OmniX509Commons.validateExpiration(side, chain, settings, notifier, connectionInfo);
+        }
     }
 }
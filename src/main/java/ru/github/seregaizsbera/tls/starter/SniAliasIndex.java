@@ -0,0 +1,303 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Индекс псевдонимов серверных сертификатов по имени узла из расширения SNI и типу ключа.
+ * <p>
+ * Стандартный менеджер ключей при каждом соединении перебирает все псевдонимы хранилища. Индекс строится
+ * один раз, после чего псевдоним выбирается поиском в хеш-таблице: сначала по точному имени узла, затем
+ * по имени с заменой первой метки на <code>*</code>. Для одного имени может быть несколько сертификатов,
+ * они упорядочены по убыванию срока действия, и выбирается первый действующий. Если подходящего псевдонима
+ * нет, то возвращается <code>null</code>, и выбор выполняет стандартный менеджер ключей.
+ * <p>
+ * Индекс выбирает сертификат, только если ограничения клиента заведомо выполняются, иначе выбор также
+ * передается стандартному менеджеру ключей:
+ * <ul>
+ *     <li>сертификаты, расширение keyUsage которых не разрешает digitalSignature, не индексируются;</li>
+ *     <li>алгоритмы подписи всех сертификатов цепочки должны входить в список
+ *     {@link ExtendedSSLSession#getPeerSupportedSignatureAlgorithms()}, как и в стандартном менеджере ключей;</li>
+ *     <li>сертификат с ключом EC выбирается только в TLS 1.3, где схема подписи ECDSA однозначно задает кривую,
+ *     и только если клиент поддерживает схему для кривой ключа. В TLS 1.2 кривую ограничивает расширение
+ *     supported_groups, которое недоступно через {@link ExtendedSSLSession}. Ключи на кривых, для которых
+ *     нет схемы подписи TLS 1.3, не индексируются.</li>
+ * </ul>
+ */
+final class SniAliasIndex {
+    private static final String SERVER_AUTH = "1.3.6.1.5.5.7.3.1";
+    private static final String ANY_EXTENDED_KEY_USAGE = "2.5.29.37.0";
+    private static final int DNS_NAME = 2;
+    private static final int DIGITAL_SIGNATURE = 0;
+    private static final String TLS13 = "TLSv1.3";
+    /**
+     * Идентификатор или имя кривой -> алгоритм подписи схемы TLS 1.3 для ключа на этой кривой
+     * (ecdsa_secp256r1_sha256 и т. д.)
+     */
+    private static final Map<String, String> CURVE_ALGORITHMS = Map.of(
+            "1.2.840.10045.3.1.7", "SHA256withECDSA",
+            "secp256r1", "SHA256withECDSA",
+            "1.3.132.0.34", "SHA384withECDSA",
+            "secp384r1", "SHA384withECDSA",
+            "1.3.132.0.35", "SHA512withECDSA",
+            "secp521r1", "SHA512withECDSA"
+    );
+    /**
+     * Тип ключа -> имя узла -> сертификаты в порядке убывания срока действия
+     */
+    private final Map<String, Map<String, Candidate[]>> index;
+
+    private SniAliasIndex(Map<String, Map<String, Candidate[]>> index) {
+        this.index = index;
+    }
+
+    /**
+     * Строит индекс по серверным псевдонимам менеджера ключей.
+     *
+     * @param keyManager менеджер ключей
+     * @param keyTypes   типы ключей, для которых запрашиваются псевдонимы
+     * @return индекс
+     */
+    static SniAliasIndex build(X509ExtendedKeyManager keyManager, String[] keyTypes) {
+        Set<String> aliases = new LinkedHashSet<>();
+        for (String keyType : keyTypes) {
+            var values = keyManager.getServerAliases(keyType, null);
+            if (values != null) {
+                aliases.addAll(List.of(values));
+            }
+        }
+        Map<String, Map<String, List<Candidate>>> candidates = new HashMap<>();
+        for (String alias : aliases) {
+            var chain = keyManager.getCertificateChain(alias);
+            if (chain == null || chain.length == 0 || !isServerCertificate(chain[0]) || !allowsDigitalSignature(chain[0])) {
+                continue;
+            }
+            var cert = chain[0];
+            String keyAlgorithm = null;
+            if (cert.getPublicKey() instanceof ECPublicKey ecPublicKey) {
+                keyAlgorithm = curveAlgorithm(ecPublicKey);
+                if (keyAlgorithm == null) {
+                    continue;
+                }
+            }
+            var algorithms = new String[chain.length];
+            for (int i = 0; i < chain.length; i++) {
+                algorithms[i] = chain[i].getSigAlgName();
+            }
+            var candidate = new Candidate(alias, cert.getNotBefore().getTime(), cert.getNotAfter().getTime(), keyAlgorithm, algorithms);
+            var byHost = candidates.computeIfAbsent(cert.getPublicKey().getAlgorithm(), k -> new HashMap<>());
+            for (String hostName : hostNames(cert)) {
+                byHost.computeIfAbsent(hostName, k -> new ArrayList<>()).add(candidate);
+            }
+        }
+        Map<String, Map<String, Candidate[]>> result = new HashMap<>();
+        candidates.forEach((keyType, byHost) -> {
+            Map<String, Candidate[]> sorted = new HashMap<>();
+            byHost.forEach((hostName, list) -> sorted.put(hostName, list.stream()
+                    .sorted(Comparator.comparingLong(Candidate::notAfter).reversed())
+                    .toArray(Candidate[]::new)));
+            result.put(keyType, sorted);
+        });
+        return new SniAliasIndex(result);
+    }
+
+    /**
+     * Выбирает псевдоним по имени узла, запрошенному клиентом при установлении соединения,
+     * с учетом алгоритмов подписи, которые поддерживает клиент.
+     *
+     * @param keyType тип ключа
+     * @param session сессия, для которой выполняется рукопожатие, или <code>null</code>
+     * @param now     текущее время Unixtime millis
+     * @return псевдоним или <code>null</code>, если выбор нужно выполнить стандартным способом
+     */
+    String choose(String keyType, SSLSession session, long now) {
+        if (!(session instanceof ExtendedSSLSession extendedSession)) {
+            return null;
+        }
+        var hostName = requestedHostName(extendedSession);
+        if (hostName == null) {
+            return null;
+        }
+        var candidate = find(keyType, hostName, now);
+        return candidate != null && candidate.conformsTo(extendedSession) ? candidate.alias() : null;
+    }
+
+    private Candidate find(String keyType, String hostName, long now) {
+        var byHost = index.get(keyType);
+        if (byHost == null) {
+            return null;
+        }
+        var candidates = byHost.get(hostName);
+        if (candidates == null) {
+            int dot = hostName.indexOf('.');
+            if (dot <= 0) {
+                return null;
+            }
+            candidates = byHost.get("*" + hostName.substring(dot));
+            if (candidates == null) {
+                return null;
+            }
+        }
+        for (Candidate candidate : candidates) {
+            if (candidate.notBefore() <= now && now < candidate.notAfter()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static String requestedHostName(ExtendedSSLSession session) {
+        for (SNIServerName serverName : session.getRequestedServerNames()) {
+            if (serverName instanceof SNIHostName hostName) {
+                return hostName.getAsciiName().toLowerCase(Locale.ROOT);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Проверяет, что сертификат можно использовать для аутентификации сервера.
+     * Если расширение extendedKeyUsage отсутствует, то ограничений нет.
+     *
+     * @param cert сертификат
+     * @return <code>true</code>, если сертификат можно использовать на стороне сервера
+     */
+    private static boolean isServerCertificate(X509Certificate cert) {
+        try {
+            var extendedKeyUsage = cert.getExtendedKeyUsage();
+            return extendedKeyUsage == null || extendedKeyUsage.contains(SERVER_AUTH) || extendedKeyUsage.contains(ANY_EXTENDED_KEY_USAGE);
+        } catch (CertificateParsingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Проверяет, что расширение keyUsage отсутствует или разрешает digitalSignature. Сертификаты, ключ которых
+     * можно использовать только для обмена ключами RSA в TLS 1.2, выбирает стандартный менеджер ключей.
+     *
+     * @param cert сертификат
+     * @return <code>true</code>, если ключом сертификата можно подписывать рукопожатие
+     */
+    private static boolean allowsDigitalSignature(X509Certificate cert) {
+        var keyUsage = cert.getKeyUsage();
+        return keyUsage == null || keyUsage.length > DIGITAL_SIGNATURE && keyUsage[DIGITAL_SIGNATURE];
+    }
+
+    /**
+     * Определяет алгоритм подписи схемы TLS 1.3 для ключа EC по его кривой.
+     *
+     * @param key открытый ключ
+     * @return алгоритм подписи или <code>null</code>, если кривая не поддерживается в TLS 1.3 или ее не удалось определить
+     */
+    private static String curveAlgorithm(ECPublicKey key) {
+        try {
+            var parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(key.getParams());
+            return CURVE_ALGORITHMS.get(parameters.getParameterSpec(ECGenParameterSpec.class).getName());
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Проверяет, входит ли алгоритм подписи в список алгоритмов, которые поддерживает клиент.
+     *
+     * @param algorithm      алгоритм подписи
+     * @param peerAlgorithms алгоритмы подписи клиента
+     * @return <code>true</code>, если алгоритм поддерживается
+     */
+    private static boolean isSupported(String algorithm, String[] peerAlgorithms) {
+        for (String peerAlgorithm : peerAlgorithms) {
+            if (algorithm.equalsIgnoreCase(peerAlgorithm)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Возвращает имена узлов из subjectAlternativeNames, а если их нет, то из CN имени владельца.
+     *
+     * @param cert сертификат
+     * @return имена узлов в нижнем регистре
+     */
+    private static Set<String> hostNames(X509Certificate cert) {
+        Set<String> result = new LinkedHashSet<>();
+        try {
+            Collection<List<?>> sans = cert.getSubjectAlternativeNames();
+            if (sans != null) {
+                for (List<?> san : sans) {
+                    if (san.size() >= 2 && Integer.valueOf(DNS_NAME).equals(san.get(0)) && san.get(1) instanceof String name) {
+                        result.add(name.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        } catch (CertificateParsingException e) {
+            // Если не удалось извлечь из сертификата доп. имена, то считается, что их нет
+        }
+        if (result.isEmpty()) {
+            try {
+                for (Rdn rdn : new LdapName(cert.getSubjectX500Principal().getName()).getRdns()) {
+                    if ("CN".equalsIgnoreCase(rdn.getType())) {
+                        result.add(rdn.getValue().toString().toLowerCase(Locale.ROOT));
+                    }
+                }
+            } catch (InvalidNameException e) {
+                // Сертификат без имени узла не индексируется
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Сертификат, подходящий для имени узла
+     *
+     * @param alias        псевдоним
+     * @param notBefore    начало срока действия Unixtime millis
+     * @param notAfter     окончание срока действия Unixtime millis
+     * @param keyAlgorithm алгоритм подписи схемы TLS 1.3 для ключа EC или <code>null</code> для ключей других типов
+     * @param algorithms   алгоритмы подписи сертификатов цепочки
+     */
+    private record Candidate(String alias, long notBefore, long notAfter, String keyAlgorithm, String[] algorithms) {
+        /**
+         * Проверяет, что клиент поддерживает алгоритмы подписи цепочки и, для ключа EC, его кривую.
+         * Если клиент не передал список алгоритмов, например, в TLS 1.1, то проверка считается непройденной.
+         */
+        boolean conformsTo(ExtendedSSLSession session) {
+            var peerAlgorithms = session.getPeerSupportedSignatureAlgorithms();
+            if (peerAlgorithms == null || peerAlgorithms.length == 0) {
+                return false;
+            }
+            if (keyAlgorithm != null && !(TLS13.equals(session.getProtocol()) && isSupported(keyAlgorithm, peerAlgorithms))) {
+                return false;
+            }
+            for (String algorithm : algorithms) {
+                if (!isSupported(algorithm, peerAlgorithms)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings.ReloadableStore;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отслеживает изменения файлов хранилищ, перечисленных в {@link OmniTlsStarterSettings#getReloadStores()},
+ * и заменяет стандартные менеджеры ключей и доверия внутри оберток без перезапуска приложения.
+ * <p>
+ * Хранилище передается в фабрику менеджеров уже загруженным, поэтому путь к его файлу неизвестен.
+ * Обертка связывается с файлом по отпечатку содержимого хранилища ({@link KeyStoreDigest#of(KeyStore)}):
+ * если файл изменился, то перезагружаются все обертки, созданные из его предыдущего содержимого.
+ * Если содержимое хранилища обертки не совпадает ни с одним отслеживаемым файлом, например, из-за другого типа
+ * хранилища, то выводится предупреждение, т. к. такая обертка никогда не будет перезагружена.
+ * Новый стандартный менеджер создается в потоке {@link OmniExecutors#stores()} и подменяется одной записью volatile-ссылки,
+ * поэтому рукопожатия, которые уже выполняются, не блокируются и завершаются со старым менеджером.
+ * <p>
+ * Изменения обнаруживаются опросом времени изменения и размера файлов с периодом
+ * {@link OmniTlsStarterSettings#getReloadPeriodSeconds()}. Если файл не удалось загрузить, например, потому что
+ * он записан не полностью, то попытка повторяется при следующем опросе.
+ */
+final class StoreReloader {
+    /**
+     * Зарегистрированные обертки. Обертки, которые больше не используются, удаляются сборщиком мусора.
+     */
+    private static final Set<Reloadable> managers = Collections.newSetFromMap(new WeakHashMap<>());
+    /**
+     * Обертки, о которых уже выведено предупреждение, что они не связаны ни с одним файлом
+     */
+    private static final Set<Reloadable> unmatchedReported = Collections.newSetFromMap(new WeakHashMap<>());
+    /**
+     * Путь к файлу -> состояние файла при последнем опросе
+     */
+    private static final Map<String, Snapshot> snapshots = new HashMap<>();
+    private static boolean started = false;
+
+    private StoreReloader() {
+    }
+
+    /**
+     * @param settings настройки
+     * @return <code>true</code>, если задан хотя бы один файл хранилища для отслеживания
+     */
+    static boolean isEnabled(OmniTlsStarterSettings settings) {
+        var stores = settings.getReloadStores();
+        return stores != null && !stores.isEmpty();
+    }
+
+    /**
+     * Регистрирует обертку для перезагрузки. Файлы хранилищ не читаются в вызывающем потоке: опрос, который
+     * запоминает состояние файлов и проверяет связь обертки с ними, выполняется в {@link OmniExecutors#stores()}
+     * сразу после регистрации. При первой регистрации запускается периодический опрос файлов.
+     *
+     * @param manager обертка над стандартным менеджером
+     */
+    static synchronized void register(Reloadable manager) {
+        managers.add(manager);
+        var executor = OmniExecutors.stores();
+        if (started) {
+            executor.execute(StoreReloader::poll);
+        } else {
+            long period = Math.max(1L, OmniTlsStarterSettings.getInstance().getReloadPeriodSeconds());
+            executor.scheduleWithFixedDelay(StoreReloader::poll, 0L, period, TimeUnit.SECONDS);
+            started = true;
+        }
+    }
+
+    /**
+     * Проверяет файлы хранилищ и перезагружает обертки, связанные с изменившимися файлами.
+     * Об обертках, не связанных ни с одним файлом, выводится предупреждение, один раз для каждой обертки.
+     *
+     * @return количество перезагруженных оберток
+     */
+    static synchronized int poll() {
+        var notifier = OmniSecurityNotifier.getInstance();
+        int result = pollStores(notifier);
+        for (Reloadable manager : unmatched()) {
+            if (unmatchedReported.add(manager)) {
+                notifier.notify(new OmniX509EventModel(Level.WARN, String.format(Locale.ROOT,
+                        "Хранилище менеджера %s не совпадает ни с одним файлом из настройки перезагрузки хранилищ, " +
+                                "менеджер не будет перезагружаться. Проверьте путь, тип и пароль хранилища",
+                        manager.getClass().getSimpleName()), manager.getStoreDigest()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает зарегистрированные обертки, содержимое хранилищ которых не совпадает ни с одним успешно
+     * загруженным файлом. Отпечаток содержимого учитывает тип хранилища, поэтому хранилище,
+     * загруженное приложением с другим типом, чем указано в настройках, тоже не совпадет.
+     * Пока не загружены все файлы из настроек, связь оберток с файлами не проверяется.
+     *
+     * @return обертки, которые не будут перезагружаться
+     */
+    static synchronized List<Reloadable> unmatched() {
+        var stores = OmniTlsStarterSettings.getInstance().getReloadStores();
+        for (ReloadableStore store : stores == null ? List.<ReloadableStore>of() : stores) {
+            if (store.getPath() != null && !snapshots.containsKey(store.getPath())) {
+                return List.of();
+            }
+        }
+        var digests = new HashSet<String>();
+        snapshots.values().forEach(snapshot -> digests.add(snapshot.digest()));
+        var result = new ArrayList<Reloadable>();
+        for (Reloadable manager : managers) {
+            if (manager.getStoreDigest() != null && !digests.contains(manager.getStoreDigest())) {
+                result.add(manager);
+            }
+        }
+        return result;
+    }
+
+    private static int pollStores(OmniSecurityNotifier notifier) {
+        var stores = OmniTlsStarterSettings.getInstance().getReloadStores();
+        int result = 0;
+        // Файлы, исключенные из настроек, больше не отслеживаются и не участвуют в проверке связи оберток с файлами
+        var paths = new HashSet<String>();
+        for (ReloadableStore store : stores == null ? List.<ReloadableStore>of() : stores) {
+            paths.add(store.getPath());
+        }
+        snapshots.keySet().retainAll(paths);
+        for (ReloadableStore store : stores == null ? List.<ReloadableStore>of() : stores) {
+            if (store.getPath() == null) {
+                continue;
+            }
+            try {
+                result += pollStore(store, notifier);
+            } catch (RuntimeException e) {
+                // Исключение не должно прерывать периодический опрос остальных и последующих хранилищ
+                notifier.notify(new OmniX509EventModel(Level.ERROR,
+                        String.format(Locale.ROOT, "Ошибка при проверке хранилища %s: %s", store.getPath(), e), store.getPath()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Проверяет один файл хранилища и перезагружает обертки, если его содержимое изменилось.
+     *
+     * @return количество перезагруженных оберток
+     */
+    private static int pollStore(ReloadableStore store, OmniSecurityNotifier notifier) {
+        var file = new File(store.getPath());
+        // Время изменения и размер читаются до загрузки, чтобы запись, сделанная во время загрузки, обнаружилась при следующем опросе
+        long lastModified = file.lastModified();
+        long length = file.length();
+        var previous = snapshots.get(store.getPath());
+        if (previous != null && previous.lastModified() == lastModified && previous.length() == length) {
+            return 0;
+        }
+        KeyStore ks;
+        String digest;
+        try {
+            ks = load(file, store);
+            digest = KeyStoreDigest.of(ks);
+        } catch (IOException | GeneralSecurityException e) {
+            notifier.notify(new OmniX509EventModel(Level.WARN,
+                    String.format(Locale.ROOT, "Не удалось загрузить хранилище %s: %s", store.getPath(), e), store.getPath()));
+            return 0;
+        }
+        snapshots.put(store.getPath(), new Snapshot(lastModified, length, digest));
+        if (previous != null && !previous.digest().equals(digest)) {
+            return reload(previous.digest(), digest, ks, store, notifier);
+        }
+        return 0;
+    }
+
+    private static int reload(String oldDigest, String newDigest, KeyStore ks, ReloadableStore store, OmniSecurityNotifier notifier) {
+        var password = store.getKeyPassword() != null ? store.getKeyPassword() : store.getPassword();
+        int count = 0;
+        for (Reloadable manager : List.copyOf(managers)) {
+            if (!oldDigest.equals(manager.getStoreDigest())) {
+                continue;
+            }
+            try {
+                manager.reload(ks, password == null ? null : password.toCharArray(), newDigest);
+                count++;
+            } catch (GeneralSecurityException | RuntimeException e) {
+                notifier.notify(new OmniX509EventModel(Level.ERROR,
+                        String.format(Locale.ROOT, "Не удалось применить новое содержимое хранилища %s: %s", store.getPath(), e), store.getPath()));
+            }
+        }
+        if (count > 0) {
+            // Фабрики в кэшах созданы из старого содержимого
+            OmniKeyManagerFactorySpi.invalidateCache();
+            OmniTrustManagerFactorySpi.invalidateCache();
+            notifier.notify(new OmniX509EventModel(Level.INFO,
+                    String.format(Locale.ROOT, "Хранилище %s перезагружено, обновлено менеджеров: %d", store.getPath(), count), store.getPath()));
+        }
+        return count;
+    }
+
+    private static KeyStore load(File file, ReloadableStore store) throws IOException, GeneralSecurityException {
+        var ks = KeyStore.getInstance(store.getType());
+        try (var in = new FileInputStream(file)) {
+            ks.load(in, store.getPassword() == null ? null : store.getPassword().toCharArray());
+        }
+        return ks;
+    }
+
+    /**
+     * Обертка над стандартным менеджером, который можно заменить новым
+     */
+    interface Reloadable {
+        /**
+         * @return отпечаток содержимого хранилища, из которого создан текущий стандартный менеджер, или <code>null</code>
+         */
+        String getStoreDigest();
+
+        /**
+         * Создает стандартный менеджер из нового содержимого хранилища и заменяет им текущий.
+         *
+         * @param ks          хранилище
+         * @param password    пароль закрытых ключей
+         * @param storeDigest отпечаток нового содержимого хранилища
+         * @throws GeneralSecurityException если менеджер не удалось создать, в этом случае текущий менеджер не меняется
+         */
+        void reload(KeyStore ks, char[] password, String storeDigest) throws GeneralSecurityException;
+    }
+
+    /**
+     * Состояние файла хранилища
+     *
+     * @param lastModified время изменения
+     * @param length       размер
+     * @param digest       отпечаток содержимого
+     */
+    private record Snapshot(long lastModified, long length, String digest) {}
+}
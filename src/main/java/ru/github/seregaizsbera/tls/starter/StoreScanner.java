@@ -0,0 +1,168 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодически проверяет сроки действия всех доверенных сертификатов менеджеров доверия и всех сертификатов
+ * менеджеров ключей, не дожидаясь, пока сертификат будет использован в рукопожатии.
+ * <p>
+ * Первая проверка выполняется сразу после создания первого менеджера, следующие - с периодом
+ * {@link OmniTlsStarterSettings#getScanPeriodSeconds()}. Проверка выполняется в потоке {@link OmniExecutors#stores()},
+ * а не в общем планировщике, поэтому не задерживает разбор очереди событий. Доверенных сертификатов в корпоративных
+ * хранилищах бывают тысячи, поэтому большие массивы проверяются параллельно в {@link ForkJoinPool#commonPool()}.
+ * Моменты пересечения порогов для доверенных сертификатов не запоминаются в кэше {@link OmniX509Commons#getExpiration},
+ * чтобы не вытеснять из него сертификаты, проверяемые в рукопожатиях. Сертификаты менеджеров ключей, наоборот,
+ * используются в рукопожатиях, и результаты их проверки запоминаются.
+ */
+final class StoreScanner {
+    /**
+     * Массивы меньшего размера проверяются в одном потоке
+     */
+    static final int PARALLEL_THRESHOLD = 256;
+    private static final Set<OmniX509ExtendedTrustManager> trustManagers = Collections.newSetFromMap(new WeakHashMap<>());
+    private static final Set<OmniX509ExtendedKeyManager> keyManagers = Collections.newSetFromMap(new WeakHashMap<>());
+    private static boolean started = false;
+
+    private StoreScanner() {
+    }
+
+    /**
+     * @param settings настройки
+     * @return <code>true</code>, если периодическая проверка включена
+     */
+    static boolean isEnabled(OmniTlsStarterSettings settings) {
+        return settings.getScanPeriodSeconds() > 0;
+    }
+
+    /**
+     * Регистрирует менеджер доверия для периодической проверки.
+     *
+     * @param trustManager менеджер доверия
+     */
+    static synchronized void register(OmniX509ExtendedTrustManager trustManager) {
+        trustManagers.add(trustManager);
+        start();
+    }
+
+    /**
+     * Регистрирует менеджер ключей для периодической проверки.
+     *
+     * @param keyManager менеджер ключей
+     */
+    static synchronized void register(OmniX509ExtendedKeyManager keyManager) {
+        keyManagers.add(keyManager);
+        start();
+    }
+
+    private static void start() {
+        long period = OmniTlsStarterSettings.getInstance().getScanPeriodSeconds();
+        if (!started && period > 0) {
+            OmniExecutors.stores().scheduleWithFixedDelay(StoreScanner::scheduledScan, 0L, period, TimeUnit.SECONDS);
+            started = true;
+        }
+    }
+
+    /**
+     * Периодическая проверка. Исключение, выброшенное из задачи, отменяет все последующие запуски,
+     * поэтому любое исключение передается в {@link OmniSecurityNotifier}, а проверка продолжает выполняться по расписанию.
+     */
+    private static void scheduledScan() {
+        var notifier = OmniSecurityNotifier.getInstance();
+        try {
+            scan(notifier, OmniTlsStarterSettings.getInstance());
+        } catch (RuntimeException e) {
+            notifier.notify(new OmniX509EventModel(Level.ERROR,
+                    String.format(Locale.ROOT, "Ошибка при периодической проверке хранилищ: %s", e), StoreScanner.class.getName()));
+        }
+    }
+
+    /**
+     * Проверяет сертификаты всех зарегистрированных менеджеров.
+     *
+     * @param notifier объект, в который передаются события
+     * @param settings настройки
+     * @return количество проверенных доверенных сертификатов
+     */
+    static int scan(OmniSecurityNotifier notifier, OmniTlsStarterSettings settings) {
+        List<OmniX509ExtendedTrustManager> trustManagersCopy;
+        List<OmniX509ExtendedKeyManager> keyManagersCopy;
+        synchronized (StoreScanner.class) {
+            trustManagersCopy = List.copyOf(trustManagers);
+            keyManagersCopy = List.copyOf(keyManagers);
+        }
+        keyManagersCopy.forEach(OmniX509ExtendedKeyManager::validateAliases);
+        // Одни и те же доверенные сертификаты обычно есть в нескольких менеджерах
+        Set<X509Certificate> anchors = new LinkedHashSet<>();
+        for (OmniX509ExtendedTrustManager trustManager : trustManagersCopy) {
+            Collections.addAll(anchors, trustManager.getAcceptedIssuers());
+        }
+        var certs = anchors.toArray(new X509Certificate[0]);
+        scan(certs, notifier, settings);
+        return certs.length;
+    }
+
+    /**
+     * Проверяет сроки действия доверенных сертификатов.
+     *
+     * @param certs    сертификаты
+     * @param notifier объект, в который передаются события
+     * @param settings настройки
+     */
+    static void scan(X509Certificate[] certs, OmniSecurityNotifier notifier, OmniTlsStarterSettings settings) {
+        var task = new ScanTask(certs, 0, certs.length, notifier, settings);
+        if (certs.length < PARALLEL_THRESHOLD) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /**
+     * Проверка части массива сертификатов. Делится пополам, пока часть не станет меньше {@link #PARALLEL_THRESHOLD}.
+     */
+    private static final class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient X509Certificate[] certs;
+        private final int from;
+        private final int to;
+        private final transient OmniSecurityNotifier notifier;
+        private final transient OmniTlsStarterSettings settings;
+
+        ScanTask(X509Certificate[] certs, int from, int to, OmniSecurityNotifier notifier, OmniTlsStarterSettings settings) {
+            this.certs = certs;
+            this.from = from;
+            this.to = to;
+            this.notifier = notifier;
+            this.settings = settings;
+        }
+
+        @Override
+        protected void compute() {
+            if (notifier.isFull()) {
+                // События все равно не будут приняты, проверка повторится в следующий раз
+                return;
+            }
+            if (to - from < PARALLEL_THRESHOLD) {
+                OmniX509Commons.validateExpiration(Side.TRUST_STORE, certs, from, to, settings, notifier, OmniConnectionInfo.NONE);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ScanTask(certs, from, middle, notifier, settings), new ScanTask(certs, middle, to, notifier, settings));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import ru.github.seregaizsbera.tls.starter.models.OmniX509CertificateModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.net.Socket;
+import java.security.AlgorithmConstraints;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Кэш успешных проверок цепочек сертификатов стандартным менеджером доверия.
+ * <p>
+ * Проверка PKIX строит путь до доверенного сертификата и проверяет подписи, что составляет основную
+ * стоимость рукопожатия. Если та же цепочка с тем же типом аутентификации уже была принята для того же узла,
+ * то повторная проверка пропускается. Ключ включает отпечатки всех сертификатов цепочки, алгоритм проверки
+ * имени узла и ограничения алгоритмов из параметров соединения, а также имя удаленного узла, имена, запрошенные
+ * в рукопожатии, версию протокола и алгоритмы подписи из сеанса рукопожатия. Поэтому цепочка, принятая
+ * без проверки имени узла или с более слабыми ограничениями, не принимается из кэша для соединения,
+ * которое такую проверку требует.
+ * <p>
+ * Запись действует не дольше максимального возраста и не дольше срока действия любого сертификата цепочки.
+ * Ограничения алгоритмов, заданные в параметрах соединения, сравниваются по ссылке, поэтому соединения
+ * с одинаковыми по смыслу, но разными объектами ограничений не используют записи друг друга.
+ */
+final class VerifiedChainCache {
+    /**
+     * Максимальное количество запоминаемых цепочек
+     */
+    private static final int CAPACITY = 1024;
+    /**
+     * Ключ -> момент, до которого проверка действительна, Unixtime millis
+     */
+    private final BoundedCache<Key, Long> cache = new BoundedCache<>(CAPACITY);
+
+    /**
+     * Формирует ключ проверки.
+     *
+     * @param side     сторона соединения, сертификаты которой проверяются
+     * @param chain    цепочка сертификатов
+     * @param authType тип аутентификации
+     * @param socket   сокет или <code>null</code>
+     * @param engine   SSLEngine или <code>null</code>
+     * @return ключ или <code>null</code>, если проверку нельзя кэшировать
+     */
+    static Key keyOf(Side side, X509Certificate[] chain, String authType, Socket socket, SSLEngine engine) {
+        if (chain == null || chain.length == 0 || authType == null) {
+            return null;
+        }
+        var fingerprints = new String[chain.length];
+        for (int i = 0; i < chain.length; i++) {
+            if (chain[i] == null) {
+                return null;
+            }
+            fingerprints[i] = OmniX509CertificateModel.of(chain[i]).getFingerprint();
+        }
+        SSLParameters parameters;
+        SSLSession session;
+        if (socket instanceof SSLSocket sslSocket) {
+            parameters = sslSocket.getSSLParameters();
+            session = sslSocket.getHandshakeSession();
+        } else if (engine != null) {
+            parameters = engine.getSSLParameters();
+            session = engine.getHandshakeSession();
+        } else {
+            return new Key(side, authType, null, null, "", List.of(fingerprints));
+        }
+        return new Key(side, authType, parameters.getEndpointIdentificationAlgorithm(), parameters.getAlgorithmConstraints(),
+                handshakeIdentity(session), List.of(fingerprints));
+    }
+
+    /**
+     * @param key ключ
+     * @param now текущее время Unixtime millis
+     * @return <code>true</code>, если цепочка уже была принята, и проверка еще действительна
+     */
+    boolean isVerified(Key key, long now) {
+        var validUntil = cache.get(key);
+        if (validUntil == null) {
+            return false;
+        }
+        if (now >= validUntil) {
+            cache.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Запоминает успешную проверку цепочки.
+     *
+     * @param key      ключ
+     * @param chain    цепочка сертификатов
+     * @param now      текущее время Unixtime millis
+     * @param maxAgeMs максимальный возраст записи
+     */
+    void put(Key key, X509Certificate[] chain, long now, long maxAgeMs) {
+        long validUntil = now + maxAgeMs;
+        for (X509Certificate cert : chain) {
+            validUntil = Math.min(validUntil, cert.getNotAfter().getTime());
+        }
+        if (validUntil > now) {
+            cache.put(key, validUntil);
+        }
+    }
+
+    /**
+     * Удаляет все записи. Вызывается при замене стандартного менеджера доверия.
+     */
+    void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return количество записей
+     */
+    int size() {
+        return cache.size();
+    }
+
+    /**
+     * Возвращает сведения из сеанса рукопожатия, от которых зависит проверка стандартным менеджером доверия:
+     * имя удаленного узла, имена, запрошенные через расширение SNI, версию протокола и алгоритмы подписи,
+     * по которым строятся ограничения алгоритмов.
+     */
+    private static String handshakeIdentity(SSLSession session) {
+        if (session == null) {
+            return "";
+        }
+        var result = new StringBuilder(String.valueOf(session.getPeerHost()));
+        result.append('|').append(session.getProtocol());
+        if (session instanceof ExtendedSSLSession extendedSession) {
+            extendedSession.getRequestedServerNames().forEach(name -> result.append('|').append(name));
+            result.append('|').append(String.join(",", extendedSession.getLocalSupportedSignatureAlgorithms()));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Ключ проверки
+     *
+     * @param side                    сторона соединения
+     * @param authType                тип аутентификации
+     * @param identificationAlgorithm алгоритм проверки имени узла из параметров соединения или <code>null</code>
+     * @param constraints             ограничения алгоритмов из параметров соединения или <code>null</code>.
+     *                                Сравниваются по ссылке, т. к. реализации не переопределяют equals
+     * @param identity                сведения из сеанса рукопожатия
+     * @param fingerprints            отпечатки сертификатов цепочки
+     */
+    record Key(Side side, String authType, String identificationAlgorithm, AlgorithmConstraints constraints,
+               String identity, List<String> fingerprints) {}
+}
@@ -1,11 +1,15 @@
 package ru.github.seregaizsbera.tls.starter.configuration;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
 import org.springframework.core.annotation.Order;
 import ru.github.seregaizsbera.tls.starter.OmniSecurityProvider;
 import ru.github.seregaizsbera.tls.starter.OmniTLSApplicationListener;
+import ru.github.seregaizsbera.tls.starter.OmniTlsMeterBinder;
 
 import javax.annotation.PostConstruct;
 
@@ -26,4 +30,18 @@ public class OmniTlsStarterConfiguration {
             OmniSecurityProvider.registerOnTop();
         }
     }
+
+    /**
+     * Метрики провайдера подключаются, только если в приложении есть Micrometer.
+     * Spring Boot привязывает {@link OmniTlsMeterBinder} ко всем реестрам метрик приложения.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    static class MetricsConfiguration {
+        @Bean
+        @ConditionalOnMissingBean
+        public OmniTlsMeterBinder omniTlsMeterBinder() {
+            return new OmniTlsMeterBinder();
+        }
+    }
 }
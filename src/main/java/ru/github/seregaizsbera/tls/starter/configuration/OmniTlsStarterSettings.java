@@ -7,6 +7,8 @@ import org.springframework.context.annotation.Configuration;
 import javax.annotation.PostConstruct;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateExpiredException;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 @ConfigurationProperties(prefix = "omni-tls.certificate")
@@ -28,6 +30,60 @@ public class OmniTlsStarterSettings {
     private long warningLevelDays = 30;
     private long errorLevelDays = 7;
     private Mode mode = Mode.STRICT;
+    /**
+     * Емкость очереди событий. Применяется при создании очереди, т. е. при первом TLS-соединении.
+     */
+    private int queueCapacity = 10;
+    /**
+     * Максимальное количество событий, которые запоминаются для подавления повторов.
+     * Применяется при создании очереди, т. е. при первом TLS-соединении.
+     */
+    private int limiterMaxEntries = 10_000;
+    /**
+     * Выбирать серверный сертификат по индексу имен узлов из расширения SNI, построенному при создании менеджера ключей.
+     */
+    private boolean sniAliasIndex = false;
+    /**
+     * Кэшировать фабрики менеджеров ключей по содержимому хранилища и паролю.
+     */
+    private boolean keyManagerCache = false;
+    /**
+     * Выполнять дополнительные проверки сертификатов для соединений через SSLEngine в фоновом потоке.
+     */
+    private boolean deferredEngineValidation = false;
+    /**
+     * Запоминать успешные проверки цепочек сертификатов стандартным менеджером доверия.
+     */
+    private boolean verifiedChainCache = false;
+    /**
+     * Максимальное время в секундах, в течение которого используется запомненная проверка цепочки.
+     */
+    private long verifiedChainCacheMaxAgeSeconds = 300;
+    /**
+     * Период проверки сроков действия всех сертификатов хранилищ в секундах. 0 - проверка выключена.
+     */
+    private long scanPeriodSeconds = 0;
+    /**
+     * Запоминать проверенные сертификаты и сообщать о пересечении ими порогов в момент пересечения.
+     */
+    private boolean expirationTimer = false;
+    /**
+     * Максимальное количество сертификатов, для которых публикуются метрики сроков действия. 0 - метрики не публикуются.
+     */
+    private int certificateGaugesMaxCount = 200;
+    /**
+     * Файлы хранилищ ключей и сертификатов, изменения которых применяются без перезапуска приложения.
+     */
+    private List<ReloadableStore> reloadStores = new ArrayList<>();
+    /**
+     * Период проверки изменений файлов хранилищ в секундах.
+     */
+    private long reloadPeriodSeconds = 60;
+    /**
+     * Снимок пороговых значений. Заменяется новым объектом при каждом изменении порогов,
+     * поэтому по ссылке на него можно определить, что вычисленные ранее данные устарели.
+     */
+    private volatile Thresholds thresholds = new Thresholds(infoLevelDays, warningLevelDays, errorLevelDays);
 
     @PostConstruct
     @SuppressWarnings("java:S2696")
@@ -41,6 +97,7 @@ public class OmniTlsStarterSettings {
 
     public void setInfoLevelDays(long infoLevelDays) {
         this.infoLevelDays = infoLevelDays;
+        updateThresholds();
     }
 
     public long getWarningLevelDays() {
@@ -49,6 +106,7 @@ public class OmniTlsStarterSettings {
 
     public void setWarningLevelDays(long warningLevelDays) {
         this.warningLevelDays = warningLevelDays;
+        updateThresholds();
     }
 
     public long getErrorLevelDays() {
@@ -57,6 +115,7 @@ public class OmniTlsStarterSettings {
 
     public void setErrorLevelDays(long errorLevelDays) {
         this.errorLevelDays = errorLevelDays;
+        updateThresholds();
     }
 
     public boolean isBelowExpirationThreshold(long days) {
@@ -73,6 +132,115 @@ public class OmniTlsStarterSettings {
         }
     }
 
+    /**
+     * Возвращает текущие пороговые значения в виде неизменяемого объекта.
+     *
+     * @return пороговые значения
+     */
+    public Thresholds expirationThresholds() {
+        return thresholds;
+    }
+
+    private void updateThresholds() {
+        thresholds = new Thresholds(infoLevelDays, warningLevelDays, errorLevelDays);
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getLimiterMaxEntries() {
+        return limiterMaxEntries;
+    }
+
+    public void setLimiterMaxEntries(int limiterMaxEntries) {
+        this.limiterMaxEntries = limiterMaxEntries;
+    }
+
+    public boolean isSniAliasIndex() {
+        return sniAliasIndex;
+    }
+
+    public void setSniAliasIndex(boolean sniAliasIndex) {
+        this.sniAliasIndex = sniAliasIndex;
+    }
+
+    public boolean isKeyManagerCache() {
+        return keyManagerCache;
+    }
+
+    public void setKeyManagerCache(boolean keyManagerCache) {
+        this.keyManagerCache = keyManagerCache;
+    }
+
+    public boolean isDeferredEngineValidation() {
+        return deferredEngineValidation;
+    }
+
+    public void setDeferredEngineValidation(boolean deferredEngineValidation) {
+        this.deferredEngineValidation = deferredEngineValidation;
+    }
+
+    public boolean isVerifiedChainCache() {
+        return verifiedChainCache;
+    }
+
+    public void setVerifiedChainCache(boolean verifiedChainCache) {
+        this.verifiedChainCache = verifiedChainCache;
+    }
+
+    public long getVerifiedChainCacheMaxAgeSeconds() {
+        return verifiedChainCacheMaxAgeSeconds;
+    }
+
+    public void setVerifiedChainCacheMaxAgeSeconds(long verifiedChainCacheMaxAgeSeconds) {
+        this.verifiedChainCacheMaxAgeSeconds = verifiedChainCacheMaxAgeSeconds;
+    }
+
+    public long getScanPeriodSeconds() {
+        return scanPeriodSeconds;
+    }
+
+    public void setScanPeriodSeconds(long scanPeriodSeconds) {
+        this.scanPeriodSeconds = scanPeriodSeconds;
+    }
+
+    public boolean isExpirationTimer() {
+        return expirationTimer;
+    }
+
+    public void setExpirationTimer(boolean expirationTimer) {
+        this.expirationTimer = expirationTimer;
+    }
+
+    public int getCertificateGaugesMaxCount() {
+        return certificateGaugesMaxCount;
+    }
+
+    public void setCertificateGaugesMaxCount(int certificateGaugesMaxCount) {
+        this.certificateGaugesMaxCount = certificateGaugesMaxCount;
+    }
+
+    public List<ReloadableStore> getReloadStores() {
+        return reloadStores;
+    }
+
+    public void setReloadStores(List<ReloadableStore> reloadStores) {
+        this.reloadStores = reloadStores;
+    }
+
+    public long getReloadPeriodSeconds() {
+        return reloadPeriodSeconds;
+    }
+
+    public void setReloadPeriodSeconds(long reloadPeriodSeconds) {
+        this.reloadPeriodSeconds = reloadPeriodSeconds;
+    }
+
     public Mode getMode() {
         return mode;
     }
@@ -81,6 +249,63 @@ public class OmniTlsStarterSettings {
         this.mode = mode;
     }
 
+    /**
+     * Пороговые значения срока действия сертификата в днях.
+     *
+     * @param infoLevelDays    порог уровня INFO
+     * @param warningLevelDays порог уровня WARN
+     * @param errorLevelDays   порог уровня ERROR
+     */
+    public record Thresholds(long infoLevelDays, long warningLevelDays, long errorLevelDays) {}
+
+    /**
+     * Файл хранилища, изменения которого отслеживаются.
+     */
+    public static class ReloadableStore {
+        /**
+         * Путь к файлу хранилища
+         */
+        private String path;
+        private String type = "PKCS12";
+        private String password;
+        /**
+         * Пароль закрытых ключей, если он отличается от пароля хранилища
+         */
+        private String keyPassword;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public String getKeyPassword() {
+            return keyPassword;
+        }
+
+        public void setKeyPassword(String keyPassword) {
+            this.keyPassword = keyPassword;
+        }
+    }
+
     public enum Mode {
         /**
          * Стандартный режим. При любой ошибке соединение отклоняется.
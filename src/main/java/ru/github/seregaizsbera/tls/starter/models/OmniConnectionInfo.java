@@ -0,0 +1,136 @@
+package ru.github.seregaizsbera.tls.starter.models;
+
+import javax.net.ssl.SSLEngine;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Сведения о сетевом соединении, в рамках которого проверяются сертификаты.
+ * <p>
+ * Объект только запоминает адреса и порты, а текстовое представление строится при первом вызове
+ * {@link #toString()}, т. е. только тогда, когда информация о соединении действительно выводится.
+ * Ссылки на сокет не сохраняются: текст может формироваться намного позже, когда сокет уже закрыт.
+ */
+public final class OmniConnectionInfo {
+    /**
+     * Информация о соединении недоступна
+     */
+    public static final OmniConnectionInfo NONE = new OmniConnectionInfo(false, null, null, 0, 0, false, null, 0);
+    /**
+     * Признак того, что сведения получены из сокета
+     */
+    private final boolean socket;
+    private final InetAddress localAddress;
+    private final InetAddress remoteAddress;
+    private final int remotePort;
+    private final int localPort;
+    /**
+     * Признак того, что сведения получены из {@link SSLEngine}
+     */
+    private final boolean engine;
+    /**
+     * Имя удаленного узла, полученное из {@link SSLEngine}
+     */
+    private final String peerHost;
+    private final int peerPort;
+    /**
+     * Текстовое представление, вычисляется при первом обращении
+     */
+    private String text;
+
+    @SuppressWarnings("java:S107")
+    private OmniConnectionInfo(boolean socket, InetAddress localAddress, InetAddress remoteAddress, int remotePort, int localPort,
+                               boolean engine, String peerHost, int peerPort) {
+        this.socket = socket;
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.remotePort = remotePort;
+        this.localPort = localPort;
+        this.engine = engine;
+        this.peerHost = peerHost;
+        this.peerPort = peerPort;
+    }
+
+    /**
+     * Запоминает сведения о соединении. Сокет и {@link SSLEngine} используются взаимоисключающе,
+     * поэтому обычно один из параметров равен <code>null</code>.
+     *
+     * @param socket сокет или <code>null</code>
+     * @param engine SSLEngine или <code>null</code>
+     * @return сведения о соединении или {@link #NONE}, если оба параметра равны <code>null</code>
+     */
+    public static OmniConnectionInfo of(Socket socket, SSLEngine engine) {
+        if (socket == null && engine == null) {
+            return NONE;
+        }
+        if (engine == null) {
+            return new OmniConnectionInfo(true, socket.getLocalAddress(), socket.getInetAddress(), socket.getPort(),
+                    socket.getLocalPort(), false, null, 0);
+        }
+        if (socket == null) {
+            return new OmniConnectionInfo(false, null, null, 0, 0, true, engine.getPeerHost(), engine.getPeerPort());
+        }
+        return new OmniConnectionInfo(true, socket.getLocalAddress(), socket.getInetAddress(), socket.getPort(),
+                socket.getLocalPort(), true, engine.getPeerHost(), engine.getPeerPort());
+    }
+
+    /**
+     * @return <code>true</code>, если информация о соединении недоступна
+     */
+    public boolean isEmpty() {
+        return this == NONE;
+    }
+
+    /**
+     * Возвращает адрес или имя удаленного узла без номера порта. В отличие от {@link #toString()} не зависит
+     * от конкретного TCP-соединения, поэтому подходит для определения повторов событий.
+     *
+     * @return имя удаленного узла, полученное из {@link SSLEngine}, или адрес удаленного узла сокета,
+     * или пустую строку, если информация недоступна
+     */
+    public String getPeerHost() {
+        if (engine) {
+            return peerHost == null ? "" : peerHost;
+        }
+        return hostAddress(remoteAddress);
+    }
+
+    /**
+     * Вычисляет хеш-код удаленного узла без преобразования адреса в текст.
+     * Соединения с одним узлом имеют одинаковый хеш-код, если сведения о них получены одинаковым способом.
+     *
+     * @return хеш-код удаленного узла
+     */
+    public int peerHostHash() {
+        return engine ? Objects.hashCode(peerHost) : Objects.hashCode(remoteAddress);
+    }
+
+    /**
+     * Возвращает текстовое представление соединения в формате <code>локальный_адрес:порт:удаленный_адрес:порт</code>
+     * для сокета или <code>узел:порт</code> для {@link SSLEngine}.
+     *
+     * @return информация о соединении или пустая строка, если информация недоступна
+     */
+    @Override
+    public String toString() {
+        var result = text;
+        if (result == null) {
+            result = render();
+            text = result;
+        }
+        return result;
+    }
+
+    private String render() {
+        var socketInfo = !socket ? "" : String.format(Locale.ROOT, "%s:%d:%s:%d",
+                hostAddress(localAddress), localPort, hostAddress(remoteAddress), remotePort);
+        var engineInfo = !engine ? "" : String.format(Locale.ROOT, "%s:%d", peerHost, peerPort);
+        return socketInfo + engineInfo;
+    }
+
+    private static String hostAddress(InetAddress address) {
+        return address == null ? "" : address.getHostAddress();
+    }
+}
@@ -0,0 +1,170 @@
+package ru.github.seregaizsbera.tls.starter.models;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Сведения о сертификате, которые используются в сообщениях о событиях: отпечаток SHA-256,
+ * имя владельца и краткий список subjectAlternativeNames.
+ * <p>
+ * Сведения вычисляются один раз и хранятся в кэше со слабыми ссылками на сертификаты. Сертификаты
+ * сравниваются по содержимому, поэтому повторные соединения с той же цепочкой сертификатов не приводят
+ * к повторному кодированию, хешированию и разбору имен, даже если каждый раз создаются новые объекты сертификатов.
+ * <p>
+ * Сведения запрашиваются при каждом рукопожатии для каждого сертификата цепочки, поэтому кэш не использует
+ * общую блокировку: это {@link ConcurrentHashMap}, ключами которой являются слабые ссылки на сертификаты.
+ * Записи собранных сертификатов удаляются при добавлении новых записей.
+ */
+public final class OmniX509CertificateModel {
+    private static final Map<CertificateKey, OmniX509CertificateModel> cache = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<X509Certificate> collected = new ReferenceQueue<>();
+    /**
+     * Отпечаток SHA-256 в шестнадцатеричном виде
+     */
+    private final String fingerprint;
+    /**
+     * Имя владельца сертификата в формате RFC 2253
+     */
+    private final String subject;
+    /**
+     * Несколько первых subjectAlternativeNames в скобках или пустая строка
+     */
+    private final String subjectAlternativeNames;
+
+    private OmniX509CertificateModel(String fingerprint, String subject, String subjectAlternativeNames) {
+        this.fingerprint = fingerprint;
+        this.subject = subject;
+        this.subjectAlternativeNames = subjectAlternativeNames;
+    }
+
+    /**
+     * Возвращает сведения о сертификате, при первом обращении вычисляет их.
+     *
+     * @param cert сертификат
+     * @return сведения о сертификате
+     */
+    public static OmniX509CertificateModel of(X509Certificate cert) {
+        var result = cache.get(new CertificateKey(cert, null));
+        if (result == null) {
+            // Вычисление выполняется вне блокировки. Если два потока вычислят сведения одновременно, то результаты совпадут.
+            result = new OmniX509CertificateModel(fingerprint(cert), subject(cert), extractSAN(cert));
+            expungeCollected();
+            cache.put(new CertificateKey(cert, collected), result);
+        }
+        return result;
+    }
+
+    private static void expungeCollected() {
+        for (var ref = collected.poll(); ref != null; ref = collected.poll()) {
+            cache.remove(ref);
+        }
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getSubjectAlternativeNames() {
+        return subjectAlternativeNames;
+    }
+
+    /**
+     * Вычисляет отпечаток SHA-256 сертификата. Если кодированное представление недоступно, то в качестве
+     * идентификатора используется серийный номер.
+     *
+     * @param cert сертификат
+     * @return отпечаток в шестнадцатеричном виде
+     */
+    private static String fingerprint(X509Certificate cert) {
+        try {
+            byte[] encoded = cert.getEncoded();
+            if (encoded != null) {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(encoded));
+            }
+        } catch (CertificateEncodingException | NoSuchAlgorithmException e) {
+            // Используется серийный номер
+        }
+        BigInteger serialNumber = cert.getSerialNumber();
+        return serialNumber == null ? "" : serialNumber.toString(16);
+    }
+
+    /**
+     * Слабая ссылка на сертификат, которая сравнивается по содержимому сертификата.
+     * Ссылка на собранный сертификат равна только самой себе.
+     */
+    private static final class CertificateKey extends WeakReference<X509Certificate> {
+        private final int hash;
+
+        CertificateKey(X509Certificate cert, ReferenceQueue<X509Certificate> queue) {
+            super(cert, queue);
+            this.hash = cert.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CertificateKey other) || hash != other.hash) {
+                return false;
+            }
+            var cert = get();
+            return cert != null && cert.equals(other.get());
+        }
+    }
+
+    private static String subject(X509Certificate cert) {
+        var principal = cert.getSubjectX500Principal();
+        return principal == null ? "" : principal.getName();
+    }
+
+    /**
+     * Возвращает список subjectAlternateNames сертификата в виде строки в скобках.
+     * Если список пуст, возвращает пустую строку.
+     * Если имен много, то берутся несколько первых элементов, и добавляется многоточие.
+     *
+     * @param cert сертификат
+     * @return список имен в виде строки
+     */
+    static String extractSAN(X509Certificate cert) {
+        try {
+            Collection<List<?>> sans = cert.getSubjectAlternativeNames();
+            if (sans == null) {
+                return "";
+            }
+            int maxElements = 3; // используются только первые maxElements имен, чтобы не захламлять лог
+            String suffix = sans.size() <= maxElements ? ")" : "...)";
+            return sans
+                    .stream()
+                    .flatMap(Collection::stream)
+                    .filter(String.class::isInstance)
+                    .limit(maxElements)
+                    .map(Object::toString)
+                    .collect(Collectors.joining(",", " (", suffix));
+        } catch (CertificateParsingException e) {
+            // Если не удалось извлечь из сертификата доп. имена, то считается, что их нет
+            return "";
+        }
+    }
+}
@@ -2,8 +2,17 @@ package ru.github.seregaizsbera.tls.starter.models;
 
 import org.slf4j.event.Level;
 
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.StringJoiner;
+
 /**
- * Содержит данные о событии, подлежащем выводу в лог
+ * Содержит данные о событии, подлежащем выводу в лог.
+ * <p>
+ * Событие хранит только структурированные данные. Текст сообщения формируется при первом вызове
+ * {@link #getMessage()}, т. е. в потоке, который выводит событие в лог, а не в потоке, проверяющем сертификаты.
  */
 public class OmniX509EventModel {
     /**
@@ -11,45 +20,292 @@ public class OmniX509EventModel {
      */
     private final Level level;
     /**
-     * Сообщение о событии
+     * Вид события
+     */
+    private final Kind kind;
+    /**
+     * Сторона соединения, к которой относится сертификат, или <code>null</code>
+     */
+    private final Side side;
+    /**
+     * Сертификат, к которому относится событие, или <code>null</code>
+     */
+    private final X509Certificate certificate;
+    /**
+     * Количество дней до истечения срока действия сертификата
+     */
+    private final long days;
+    /**
+     * Информация о соединении
+     */
+    private final OmniConnectionInfo connectionInfo;
+    /**
+     * Дополнительные сведения, например, текст исключения, или <code>null</code>
      */
-    private final String message;
+    private final String detail;
     /**
-     * Идентификатор сертификата, к которому относится данное событие
+     * Формирует текст сообщения
      */
-    private final String certificateIdentifier;
+    private final Formatter formatter;
     /**
      * Время события Unixtime millis
      */
     private final long timestamp;
+    /**
+     * Количество повторов события за период, не попавших в очередь
+     */
+    private final long occurrences;
+    /**
+     * Соединения, в которых возникали повторы события. Преобразуются в текст только при формировании сообщения
+     */
+    private final List<OmniConnectionInfo> peerSample;
+    /**
+     * Сообщение о событии, формируется при первом обращении
+     */
+    private String message;
+    /**
+     * Идентификатор сертификата, к которому относится данное событие, вычисляется при первом обращении
+     */
+    private String certificateIdentifier;
 
     /**
-     * Уровень по умолчанию ERROR
+     * Создает событие с готовым текстом сообщения.
      *
      * @param level уровень серьезности события
      * @param message сообщение о событии
-     * @param certificateIdentifier контрольная сумма сертификат, к которому относится событие
+     * @param certificateIdentifier идентификатор сертификата, к которому относится событие
      */
     public OmniX509EventModel(Level level, String message, String certificateIdentifier) {
-        this.level = level;
-        this.message = message;
+        this(level, Kind.MESSAGE, null, null, 0L, OmniConnectionInfo.NONE, message, OmniX509EventModel::getDetail);
         this.certificateIdentifier = certificateIdentifier;
+    }
+
+    /**
+     * Создает событие, текст которого будет сформирован позднее с помощью formatter.
+     *
+     * @param level          уровень серьезности события
+     * @param kind           вид события
+     * @param side           сторона соединения, к которой относится сертификат, или <code>null</code>
+     * @param certificate    сертификат, к которому относится событие
+     * @param days           количество дней до истечения срока действия сертификата
+     * @param connectionInfo информация о соединении
+     * @param detail         дополнительные сведения или <code>null</code>
+     * @param formatter      функция, формирующая текст сообщения
+     */
+    @SuppressWarnings("java:S107")
+    public OmniX509EventModel(Level level, Kind kind, Side side, X509Certificate certificate, long days,
+                              OmniConnectionInfo connectionInfo, String detail, Formatter formatter) {
+        this.level = level;
+        this.kind = kind;
+        this.side = side;
+        this.certificate = certificate;
+        this.days = days;
+        this.connectionInfo = Objects.requireNonNullElse(connectionInfo, OmniConnectionInfo.NONE);
+        this.detail = detail;
+        this.formatter = formatter;
         this.timestamp = System.currentTimeMillis();
+        this.occurrences = 0L;
+        this.peerSample = List.of();
+    }
+
+    private OmniX509EventModel(OmniX509EventModel source, long occurrences, List<OmniConnectionInfo> peerSample) {
+        this.level = source.level;
+        this.kind = source.kind;
+        this.side = source.side;
+        this.certificate = source.certificate;
+        this.days = source.days;
+        this.connectionInfo = source.connectionInfo;
+        this.detail = source.detail;
+        this.formatter = source.formatter;
+        this.timestamp = System.currentTimeMillis();
+        this.occurrences = occurrences;
+        this.peerSample = List.copyOf(peerSample);
+        this.certificateIdentifier = source.certificateIdentifier;
     }
 
     public Level getLevel() {
         return level;
     }
 
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Side getSide() {
+        return side;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    public long getDays() {
+        return days;
+    }
+
+    public OmniConnectionInfo getConnectionInfo() {
+        return connectionInfo;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getOccurrences() {
+        return occurrences;
+    }
+
+    public List<OmniConnectionInfo> getPeerSample() {
+        return peerSample;
+    }
+
+    /**
+     * Создает итоговое событие о повторах данного события за закрывшийся период.
+     * Итоговое событие содержит те же сведения, что и исходное, и время своего создания.
+     *
+     * @param occurrences количество повторов
+     * @param peerSample  несколько соединений, в которых возникали повторы
+     * @return итоговое событие
+     */
+    public OmniX509EventModel withOccurrences(long occurrences, List<OmniConnectionInfo> peerSample) {
+        return new OmniX509EventModel(this, occurrences, peerSample);
+    }
+
+    /**
+     * Возвращает текст сообщения, при первом обращении формирует его.
+     * Для итогового события, см. {@link #withOccurrences(long, List)}, в конец сообщения добавляются сведения о повторах.
+     *
+     * @return сообщение о событии
+     */
     public String getMessage() {
-        return message;
+        var result = message;
+        if (result == null) {
+            result = formatter.format(this);
+            if (occurrences > 0) {
+                result += String.format(Locale.ROOT, "%n Повторов за период: %d%s", occurrences,
+                        peerSample.isEmpty() ? "" : ", соединения: " + peers());
+            }
+            message = result;
+        }
+        return result;
+    }
+
+    private String peers() {
+        var result = new StringJoiner(", ");
+        peerSample.forEach(peer -> result.add(peer.toString()));
+        return result.toString();
+    }
+
+    /**
+     * @return сведения о сертификате, к которому относится событие, или <code>null</code>
+     */
+    public OmniX509CertificateModel getCertificateModel() {
+        return certificate == null ? null : OmniX509CertificateModel.of(certificate);
     }
 
+    /**
+     * Возвращает идентификатор сертификата - отпечаток SHA-256, при первом обращении вычисляет его.
+     *
+     * @return идентификатор сертификата или пустую строку, если событие не относится к сертификату
+     */
     public String getCertificateIdentifier() {
-        return certificateIdentifier;
+        var result = certificateIdentifier;
+        if (result == null) {
+            result = certificate == null ? "" : OmniX509CertificateModel.of(certificate).getFingerprint();
+            certificateIdentifier = result;
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает ключ, по которому определяются повторы событий, относящихся к одному сертификату.
+     * Ключ состоит только из устойчивых сведений: вид события, сторона, количество дней, удаленный узел без порта.
+     * Порты и другие сведения о конкретном соединении в ключ не входят, иначе каждое новое соединение
+     * порождало бы новое событие.
+     *
+     * @return ключ события
+     */
+    public String getEventKey() {
+        if (kind == Kind.MESSAGE) {
+            return Objects.requireNonNullElse(detail, "");
+        }
+        return kind.name() + ':' + side + ':' + days + ':' + connectionInfo.getPeerHost() + ':' + Objects.requireNonNullElse(detail, "");
     }
 
     public long getTimestamp() {
         return timestamp;
     }
+
+    /**
+     * Вид события
+     */
+    public enum Kind {
+        /**
+         * Произвольное сообщение с готовым текстом
+         */
+        MESSAGE,
+        /**
+         * Срок действия сертификата истекает или истек
+         */
+        EXPIRATION,
+        /**
+         * Сервер предоставил неполную цепочку сертификатов
+         */
+        INCOMPLETE_CHAIN,
+        /**
+         * Среди доверенных сертификатов находится несамоподписанный сертификат
+         */
+        NON_ROOT_CA,
+        /**
+         * Ошибка проверки сертификата пропущена в соответствии с режимом работы
+         */
+        TRUST_FAILURE
+    }
+
+    /**
+     * Сторона соединения, к которой относится сертификат
+     */
+    public enum Side {
+        /**
+         * Сертификат сервера, проверяемый клиентом
+         */
+        SERVER("Серверный"),
+        /**
+         * Сертификат клиента, проверяемый сервером
+         */
+        CLIENT("Клиентский"),
+        /**
+         * Собственный сертификат, предоставляемый менеджером ключей
+         */
+        KEY_MANAGER("KeyManager"),
+        /**
+         * Доверенный сертификат из хранилища менеджера доверия
+         */
+        TRUST_STORE("Доверенный");
+
+        private final String title;
+
+        Side(String title) {
+            this.title = title;
+        }
+
+        /**
+         * @return название стороны для вывода в сообщениях
+         */
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    /**
+     * Формирует текст сообщения по данным события
+     */
+    @FunctionalInterface
+    public interface Formatter {
+        /**
+         * @param event событие
+         * @return текст сообщения
+         */
+        String format(OmniX509EventModel event);
+    }
 }
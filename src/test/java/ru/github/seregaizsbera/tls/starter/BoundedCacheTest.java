@@ -0,0 +1,38 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedCacheTest {
+
+    @Test
+    void putAndGet() {
+        var cache = new BoundedCache<String, Integer>(4);
+        cache.put("a", 1);
+        assertEquals(1, cache.get("a"));
+        cache.put("a", 2);
+        assertEquals(2, cache.get("a"));
+        assertNull(cache.get("b"));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void capacityIsNotExceeded() {
+        var cache = new BoundedCache<Integer, Integer>(16);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 16);
+        }
+        assertEquals(999, cache.get(999));
+    }
+
+    @Test
+    void invalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedCache<String, String>(0));
+    }
+}
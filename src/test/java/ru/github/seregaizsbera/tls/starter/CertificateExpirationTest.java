@@ -0,0 +1,64 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import java.time.Duration;
+import java.time.Instant;
+
+class CertificateExpirationTest {
+    private static final long DAY = 86_400_000L;
+
+    @Test
+    void sameResultsAsDayArithmetic() {
+        var settings = new OmniTlsStarterSettings();
+        settings.setInfoLevelDays(90);
+        settings.setWarningLevelDays(0);
+        settings.setErrorLevelDays(-3);
+        long now = 1_700_000_000_000L;
+        long[] offsets = {
+                100 * DAY, 90 * DAY, 90 * DAY - 1, 89 * DAY, 30 * DAY + 5, DAY, DAY - 1, 1000, 999, 1, 0, -1, -999, -1000, -1001,
+                -DAY + 1000, -DAY + 999, -DAY, -2 * DAY + 999, -3 * DAY + 1000, -3 * DAY + 999, -4 * DAY
+        };
+        for (long offset: offsets) {
+            var expiration = new CertificateExpiration(now + offset, settings.expirationThresholds());
+            long days = Duration.between(Instant.ofEpochMilli(now), Instant.ofEpochMilli(now + offset)).toDays();
+            String message = "offset " + offset;
+            Assertions.assertEquals(days, expiration.days(now), message);
+            Assertions.assertEquals(settings.isBelowExpirationThreshold(days), expiration.isBelowThreshold(now), message);
+            if (settings.isBelowExpirationThreshold(days)) {
+                Assertions.assertEquals(settings.getLevel(days), expiration.level(now), message);
+            }
+        }
+    }
+
+    @Test
+    void isComputedFor() {
+        var settings = new OmniTlsStarterSettings();
+        var expiration = new CertificateExpiration(0L, settings.expirationThresholds());
+        Assertions.assertTrue(expiration.isComputedFor(settings.expirationThresholds()));
+        settings.setErrorLevelDays(1);
+        Assertions.assertFalse(expiration.isComputedFor(settings.expirationThresholds()));
+    }
+
+    @Test
+    void nextChange() {
+        var settings = new OmniTlsStarterSettings();
+        long now = 1_700_000_000_000L;
+        long[] offsets = {100 * DAY, 90 * DAY + 1, 90 * DAY, 89 * DAY + 5, 30 * DAY, DAY, DAY - 1, 1000, 1, 0, -1, -1000, -DAY, -5 * DAY + 7};
+        for (long offset: offsets) {
+            var expiration = new CertificateExpiration(now + offset, settings.expirationThresholds());
+            long next = expiration.nextChange(now);
+            String message = "offset " + offset;
+            Assertions.assertTrue(next > now, message);
+            if (expiration.isBelowThreshold(now)) {
+                Assertions.assertEquals(expiration.days(now), expiration.days(next - 1), message);
+                Assertions.assertEquals(expiration.days(now) - 1, expiration.days(next), message);
+            } else {
+                Assertions.assertFalse(expiration.isBelowThreshold(next - 1), message);
+                Assertions.assertTrue(expiration.isBelowThreshold(next), message);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import javax.security.auth.x500.X500Principal;
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CertificateGaugesTest {
+    private final List<String> events = new ArrayList<>();
+    private final CertificateGauges.Listener listener = new CertificateGauges.Listener() {
+        @Override
+        public void added(CertificateGauges.Entry entry) {
+            events.add("+" + entry.getCommonName() + "/" + entry.getSide());
+        }
+
+        @Override
+        public void removed(CertificateGauges.Entry entry) {
+            events.add("-" + entry.getCommonName() + "/" + entry.getSide());
+        }
+    };
+
+    @Test
+    void leastRecentlySeenEviction() {
+        var gauges = new CertificateGauges(2, listener);
+        var a = certificate(1, "a");
+        var b = certificate(2, "b");
+        var c = certificate(3, "c");
+        gauges.observe(a, Side.SERVER, 1_000L);
+        gauges.observe(b, Side.SERVER, 2_000L);
+        gauges.observe(a, Side.SERVER, 3_000L);
+        gauges.observe(c, Side.SERVER, 4_000L);
+        assertEquals(List.of("+a/server", "+b/server", "-b/server", "+c/server"), events);
+        assertEquals(2, gauges.size());
+    }
+
+    @Test
+    void sides() {
+        var gauges = new CertificateGauges(10, listener);
+        var a = certificate(1, "a");
+        gauges.observe(a, Side.CLIENT, 1_000L);
+        gauges.observe(a, Side.KEY_MANAGER, 1_000L);
+        gauges.observe(a, Side.CLIENT, 2_000L);
+        gauges.observe(a, Side.TRUST_STORE, 2_000L);
+        assertEquals(List.of("+a/client", "+a/key-manager"), events);
+    }
+
+    @Test
+    void commonName() {
+        assertEquals("*.example.com", CertificateGauges.commonName("CN=*.example.com,O=Example,C=RU"));
+        assertEquals("O=Example", CertificateGauges.commonName("O=Example"));
+        assertEquals("", CertificateGauges.commonName(""));
+    }
+
+    private static X509Certificate certificate(int serial, String cn) {
+        var cert = mock(X509Certificate.class);
+        when(cert.getSerialNumber()).thenReturn(BigInteger.valueOf(serial));
+        when(cert.getSubjectX500Principal()).thenReturn(new X500Principal("CN=" + cn));
+        when(cert.getNotAfter()).thenReturn(new Date(100_000_000L));
+        return cert;
+    }
+}
@@ -0,0 +1,193 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+
+import javax.net.ssl.SSLEngine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+class EventCoalescerTest {
+    private static final OmniX509EventModel EVENT = new OmniX509EventModel(Level.INFO, "message", "1");
+
+    @Test
+    void acquire() {
+        var coalescer = new EventCoalescer(3_600_000L, e -> { });
+        var ts = System.currentTimeMillis();
+        assertTrue(coalescer.acquire(1L, ts, EVENT));
+        assertTrue(coalescer.acquire(2L, ts, EVENT));
+        assertFalse(coalescer.acquire(1L, ts + 1_000_000L, EVENT));
+        assertFalse(coalescer.acquire(2L, ts + 3_599_999L, EVENT));
+        assertTrue(coalescer.acquire(1L, ts + 3_600_000L, EVENT));
+        assertFalse(coalescer.acquire(1L, ts + 3_600_001L, EVENT));
+    }
+
+    @Test
+    void release() {
+        var coalescer = new EventCoalescer(3_600_000L, e -> { });
+        var ts = System.currentTimeMillis();
+        assertTrue(coalescer.acquire(1L, ts, EVENT));
+        coalescer.release(1L);
+        assertTrue(coalescer.acquire(1L, ts + 1L, EVENT));
+        assertFalse(coalescer.acquire(1L, ts + 2L, EVENT));
+    }
+
+    @Test
+    void eviction() {
+        var coalescer = new EventCoalescer(3_600_000L, e -> { });
+        var ts = System.currentTimeMillis();
+        for (long key = 0; key < 10_000L; key++) {
+            assertTrue(coalescer.acquire(key, ts + key, EVENT));
+        }
+        // Последние ключи еще в таблице, первые давно вытеснены
+        assertFalse(coalescer.acquire(9_999L, ts + 10_000L, EVENT));
+        assertTrue(coalescer.acquire(0L, ts + 10_000L, EVENT));
+    }
+
+    @Test
+    void keyOf() {
+        var event1 = new OmniX509EventModel(Level.INFO, "message 1", "1");
+        var event2 = new OmniX509EventModel(Level.WARN, "message 1", "1");
+        var event3 = new OmniX509EventModel(Level.INFO, "message 2", "1");
+        var event4 = new OmniX509EventModel(Level.INFO, "message 1", "2");
+        assertEquals(EventCoalescer.keyOf(event1), EventCoalescer.keyOf(new OmniX509EventModel(Level.INFO, "message 1", "1")));
+        assertNotEquals(EventCoalescer.keyOf(event1), EventCoalescer.keyOf(event2));
+        assertNotEquals(EventCoalescer.keyOf(event1), EventCoalescer.keyOf(event3));
+        assertNotEquals(EventCoalescer.keyOf(event1), EventCoalescer.keyOf(event4));
+    }
+
+    @Test
+    void keyOfTrustFailure() {
+        var failure1 = failure(OmniX509EventModel.Side.SERVER, "expired");
+        var failure2 = failure(OmniX509EventModel.Side.SERVER, "revoked");
+        var failure3 = failure(OmniX509EventModel.Side.CLIENT, "expired");
+        assertEquals(EventCoalescer.keyOf(failure1), EventCoalescer.keyOf(failure(OmniX509EventModel.Side.SERVER, "expired")));
+        assertNotEquals(EventCoalescer.keyOf(failure1), EventCoalescer.keyOf(failure2));
+        assertNotEquals(EventCoalescer.keyOf(failure1), EventCoalescer.keyOf(failure3));
+    }
+
+    @Test
+    void concurrentAcquire() throws Exception {
+        var coalescer = new EventCoalescer(3_600_000L, e -> { });
+        var ts = System.currentTimeMillis();
+        var first = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            var futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> {
+                    for (long key = 0; key < 100L; key++) {
+                        if (coalescer.acquire(key, ts, EVENT)) {
+                            first.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(100, first.get());
+    }
+
+    @Test
+    void occurrences() {
+        var summaries = new ArrayList<OmniX509EventModel>();
+        var coalescer = new EventCoalescer(3_600_000L, summaries::add);
+        var ts = System.currentTimeMillis();
+        var connections = connections(5);
+        var first = event(connections.get(0));
+        var key = EventCoalescer.keyOf(first);
+        assertTrue(coalescer.acquire(key, ts, first));
+        for (int i = 1; i < 5; i++) {
+            var repeat = event(connections.get(i));
+            assertEquals(key, EventCoalescer.keyOf(repeat));
+            assertFalse(coalescer.acquire(key, ts + i, repeat));
+        }
+        var next = event(connections.get(0));
+        assertTrue(coalescer.acquire(key, ts + 3_600_000L, next));
+        assertEquals(1, summaries.size());
+        assertEquals(4, summaries.get(0).getOccurrences());
+        assertEquals(connections.subList(1, 4), summaries.get(0).getPeerSample());
+        assertEquals(0, next.getOccurrences());
+        assertEquals(0, first.getOccurrences());
+    }
+
+    @Test
+    void flush() {
+        var summaries = new ArrayList<OmniX509EventModel>();
+        var coalescer = new EventCoalescer(3_600_000L, summaries::add);
+        var ts = System.currentTimeMillis();
+        var connections = connections(3);
+        var first = event(connections.get(0));
+        var key = EventCoalescer.keyOf(first);
+        assertTrue(coalescer.acquire(key, ts, first));
+        assertFalse(coalescer.acquire(key, ts + 1L, event(connections.get(1))));
+        assertFalse(coalescer.acquire(key, ts + 2L, event(connections.get(2))));
+        assertTrue(coalescer.acquire(1L, ts, EVENT));
+        assertEquals(0, coalescer.flush(ts + 3_599_999L));
+        assertTrue(summaries.isEmpty());
+        // Ключ больше не встречается, но итог за период все равно выводится
+        assertEquals(1, coalescer.flush(ts + 3_600_000L));
+        assertEquals(1, summaries.size());
+        assertEquals(2, summaries.get(0).getOccurrences());
+        assertEquals(first.getLevel(), summaries.get(0).getLevel());
+        assertEquals(first.getEventKey(), summaries.get(0).getEventKey());
+        // Записи закрытых периодов освобождены
+        assertTrue(coalescer.acquire(key, ts + 3_600_001L, first));
+        assertTrue(coalescer.acquire(1L, ts + 3_600_001L, EVENT));
+        assertEquals(0, coalescer.flush(ts + 7_200_001L));
+    }
+
+    @Test
+    void evictionSummary() {
+        var summaries = new ArrayList<OmniX509EventModel>();
+        var coalescer = new EventCoalescer(3_600_000L, summaries::add);
+        var ts = System.currentTimeMillis();
+        assertTrue(coalescer.acquire(0L, ts, EVENT));
+        assertFalse(coalescer.acquire(0L, ts + 1L, EVENT));
+        // Ключи одной секции вытесняют запись с повторами
+        for (long key = 1; key <= 16L; key++) {
+            assertTrue(coalescer.acquire(key * 16L, ts + 1L + key, EVENT));
+        }
+        assertEquals(1, summaries.size());
+        assertEquals(1, summaries.get(0).getOccurrences());
+    }
+
+    private static OmniX509EventModel failure(OmniX509EventModel.Side side, String detail) {
+        return new OmniX509EventModel(Level.ERROR, OmniX509EventModel.Kind.TRUST_FAILURE, side,
+                null, 0L, OmniConnectionInfo.NONE, detail, e -> "text");
+    }
+
+    private static List<OmniConnectionInfo> connections(int count) {
+        var engine = Mockito.mock(SSLEngine.class);
+        when(engine.getPeerHost()).thenReturn("example.com");
+        var ports = new Integer[count - 1];
+        for (int i = 1; i < count; i++) {
+            ports[i - 1] = 1000 + i;
+        }
+        when(engine.getPeerPort()).thenReturn(1000, ports);
+        var result = new ArrayList<OmniConnectionInfo>();
+        for (int i = 0; i < count; i++) {
+            result.add(OmniConnectionInfo.of(null, engine));
+        }
+        return result;
+    }
+
+    private static OmniX509EventModel event(OmniConnectionInfo connectionInfo) {
+        return new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                null, 10L, connectionInfo, null, e -> "text");
+    }
+}
@@ -2,13 +2,17 @@ package ru.github.seregaizsbera.tls.starter;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class EventLimiterTest {
 
     @Test
     void accept() {
-        var eventLimiter = new EventLimiter(3_600_000L);
+        var eventLimiter = new EventLimiter(3_600_000L, 100_000);
         var ts = System.currentTimeMillis();
         assertTrue(eventLimiter.accept("1", "2", ts));
         assertTrue(eventLimiter.accept("1", "3", ts + 30L));
@@ -24,4 +28,103 @@ class EventLimiterTest {
         ts += 1_000_000L;
         assertTrue(eventLimiter.accept("1", "2", ts));
     }
+
+    @Test
+    void acceptNullKeys() {
+        var eventLimiter = new EventLimiter(3_600_000L, 100_000);
+        var ts = System.currentTimeMillis();
+        assertTrue(eventLimiter.accept(null, null, ts));
+        assertTrue(eventLimiter.accept(null, "", ts));
+        assertTrue(eventLimiter.accept("", null, ts));
+        assertTrue(eventLimiter.accept("ab", "c", ts));
+        assertTrue(eventLimiter.accept("a", "bc", ts));
+        assertFalse(eventLimiter.accept(null, null, ts + 1L));
+        assertFalse(eventLimiter.accept("a", "bc", ts + 1L));
+    }
+
+    @Test
+    void expiration() {
+        var eventLimiter = new EventLimiter(3_600_000L, 100_000);
+        var ts = System.currentTimeMillis();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(eventLimiter.accept("cert", "event " + i, ts + i));
+        }
+        assertEquals(10_000, eventLimiter.size());
+        // Записи удаляются целыми тиками колеса, поэтому нужен запас больше одного тика
+        ts += 3_600_000L + 200_000L;
+        assertTrue(eventLimiter.accept("cert", "event 0", ts));
+        assertEquals(1, eventLimiter.size());
+        // После долгого перерыва история очищается полностью
+        assertTrue(eventLimiter.accept("cert", "other", ts + 100_000_000L));
+        assertEquals(1, eventLimiter.size());
+    }
+
+    @Test
+    void sameAsReference() {
+        var random = new Random(42L);
+        long period = 10_000L;
+        var eventLimiter = new EventLimiter(period, 100_000);
+        Map<String, Long> reference = new HashMap<>();
+        long ts = 0L;
+        long lastTime = Long.MIN_VALUE;
+        for (int i = 0; i < 200_000; i++) {
+            ts += random.nextInt(100);
+            // Изредка события приходят не по порядку
+            long eventTime = random.nextInt(50) == 0 ? ts - 1_000L : ts;
+            long now = Math.max(eventTime, lastTime);
+            lastTime = now;
+            var key1 = String.valueOf(random.nextInt(20));
+            var key2 = String.valueOf(random.nextInt(200));
+            var key = key1 + '\u0000' + key2;
+            Long last = reference.get(key);
+            boolean expected = last == null || now >= last + period;
+            if (expected) {
+                reference.put(key, now);
+            }
+            assertEquals(expected, eventLimiter.accept(key1, key2, eventTime), "step " + i);
+        }
+        assertTrue(eventLimiter.size() <= reference.size());
+    }
+
+    @Test
+    void eviction() {
+        var eventLimiter = new EventLimiter(3_600_000L, 100);
+        var ts = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(eventLimiter.accept("cert", "event " + i, ts));
+        }
+        // Повторы отмечают записи как используемые
+        for (int i = 0; i < 50; i++) {
+            assertFalse(eventLimiter.accept("cert", "event " + i, ts));
+        }
+        assertEquals(0, eventLimiter.getEvictionCount());
+        for (int i = 100; i < 10_000; i++) {
+            assertTrue(eventLimiter.accept("cert", "event " + i, ts));
+            assertEquals(100, eventLimiter.size());
+        }
+        assertEquals(9_900, eventLimiter.getEvictionCount());
+        // Последние события еще в истории
+        assertFalse(eventLimiter.accept("cert", "event 9999", ts));
+    }
+
+    @Test
+    void evictionPrefersUnreferenced() {
+        var eventLimiter = new EventLimiter(3_600_000L, 4);
+        var ts = System.currentTimeMillis();
+        assertTrue(eventLimiter.accept("cert", "a", ts));
+        assertTrue(eventLimiter.accept("cert", "b", ts));
+        assertTrue(eventLimiter.accept("cert", "c", ts));
+        assertTrue(eventLimiter.accept("cert", "d", ts));
+        assertFalse(eventLimiter.accept("cert", "a", ts));
+        assertTrue(eventLimiter.accept("cert", "e", ts));
+        assertEquals(1, eventLimiter.getEvictionCount());
+        // Вытеснена запись "b", к которой не было обращений
+        assertFalse(eventLimiter.accept("cert", "a", ts));
+        assertTrue(eventLimiter.accept("cert", "b", ts));
+    }
+
+    @Test
+    void invalidMaxEntries() {
+        assertThrows(IllegalArgumentException.class, () -> new EventLimiter(3_600_000L, 0));
+    }
 }
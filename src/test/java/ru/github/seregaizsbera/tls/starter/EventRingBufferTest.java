@@ -0,0 +1,83 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventRingBufferTest {
+
+    @Test
+    void offerAndDrain() {
+        var buffer = new EventRingBuffer<Integer>(3);
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertTrue(buffer.offer(3));
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.offer(4));
+
+        var result = new ArrayList<Integer>();
+        assertEquals(2, buffer.drain(result::add, 2));
+        assertEquals(List.of(1, 2), result);
+        assertEquals(1, buffer.size());
+
+        assertTrue(buffer.offer(5));
+        assertTrue(buffer.offer(6));
+        assertFalse(buffer.offer(7));
+        assertEquals(3, buffer.drain(result::add, Integer.MAX_VALUE));
+        assertEquals(List.of(1, 2, 3, 5, 6), result);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.drain(result::add, Integer.MAX_VALUE));
+    }
+
+    @Test
+    void manyProducers() throws InterruptedException {
+        int producers = 8;
+        int perProducer = 10_000;
+        var buffer = new EventRingBuffer<Integer>(64);
+        var received = new HashSet<Integer>();
+        var start = new CountDownLatch(1);
+        var finished = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(base + i)) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finished.incrementAndGet();
+                }
+            });
+        }
+        start.countDown();
+        while (finished.get() < producers || buffer.size() > 0) {
+            buffer.drain(received::add, 16);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(producers * perProducer, received.size());
+    }
+
+    @Test
+    void invalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new EventRingBuffer<Integer>(0));
+    }
+}
@@ -0,0 +1,126 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.slf4j.event.Level;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import java.math.BigInteger;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ExpirationTimerTest {
+    private static final long DAY = 86_400_000L;
+    private static final long NOW = 1_700_000_000_000L;
+    @Mock
+    private OmniSecurityNotifier notifier;
+    @Mock
+    private ScheduledExecutorService scheduler;
+    private final OmniTlsStarterSettings settings = new OmniTlsStarterSettings();
+    private ExpirationTimer timer;
+
+    @BeforeEach
+    void setUp() {
+        timer = new ExpirationTimer(notifier, scheduler, () -> settings);
+    }
+
+    @Test
+    void fireAtThresholds() {
+        long notAfter = NOW + 100 * DAY;
+        var cert = certificate(notAfter);
+        timer.observe(cert, Side.SERVER, NOW);
+        timer.observe(cert, Side.CLIENT, NOW);
+        assertEquals(1, timer.size());
+        long infoFrom = notAfter - 90 * DAY + 1;
+        assertEquals(infoFrom, timer.nextFireAt());
+        verify(scheduler).schedule(any(Runnable.class), eq(infoFrom - NOW), any());
+
+        assertEquals(0, timer.fire(infoFrom - 1));
+        assertEquals(1, timer.fire(infoFrom));
+        assertEquals(notAfter - 30 * DAY + 1, timer.nextFireAt());
+        assertEquals(1, timer.fire(notAfter - 7 * DAY + 1));
+        assertEquals(notAfter + 1, timer.nextFireAt());
+        assertEquals(1, timer.fire(notAfter + 1));
+        // Сертификат, все пороги которого пройдены, удаляется из реестра
+        assertEquals(0, timer.size());
+        assertEquals(0, timer.scheduled());
+        assertEquals(Long.MAX_VALUE, timer.nextFireAt());
+        // Повторная встреча такого сертификата ничего не добавляет и не планирует
+        timer.observe(cert, Side.SERVER, notAfter + 2);
+        assertEquals(0, timer.size());
+        assertEquals(0, timer.scheduled());
+
+        var captor = ArgumentCaptor.forClass(OmniX509EventModel.class);
+        verify(notifier, times(3)).notify(captor.capture());
+        assertEquals(Level.INFO, captor.getAllValues().get(0).getLevel());
+        assertEquals(Level.ERROR, captor.getAllValues().get(1).getLevel());
+        assertEquals(Level.ERROR, captor.getAllValues().get(2).getLevel());
+        assertTrue(captor.getAllValues().get(2).getMessage().startsWith("Серверный"));
+        assertTrue(captor.getAllValues().get(2).getMessage().contains("истек ("));
+    }
+
+    @Test
+    void earliestFirst() {
+        timer.observe(certificate(NOW + 200 * DAY, 1), Side.SERVER, NOW);
+        timer.observe(certificate(NOW + 100 * DAY, 2), Side.SERVER, NOW);
+        assertEquals(NOW + 10 * DAY + 1, timer.nextFireAt());
+        verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), any());
+        // Более поздний сертификат не меняет запланированную задачу
+        timer.observe(certificate(NOW + 300 * DAY, 3), Side.SERVER, NOW);
+        verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    void expiredIsNotObserved() {
+        timer.observe(certificate(NOW - DAY), Side.SERVER, NOW);
+        assertEquals(0, timer.size());
+        assertEquals(0, timer.scheduled());
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    void evictLatest() {
+        timer = new ExpirationTimer(notifier, scheduler, () -> settings, 2);
+        timer.observe(certificate(NOW + 200 * DAY, 1), Side.SERVER, NOW);
+        timer.observe(certificate(NOW + 300 * DAY, 2), Side.SERVER, NOW);
+        // Заполненный реестр принимает новый сертификат, вытесняя сертификат с самым поздним пересечением
+        timer.observe(certificate(NOW + 100 * DAY, 3), Side.SERVER, NOW);
+        assertEquals(2, timer.size());
+        assertEquals(2, timer.scheduled());
+        assertEquals(NOW + 10 * DAY + 1, timer.nextFireAt());
+        // Вытесненный сертификат снова добавляется при следующей встрече
+        timer.observe(certificate(NOW + 300 * DAY, 2), Side.SERVER, NOW);
+        assertEquals(2, timer.size());
+        assertEquals(NOW + 10 * DAY + 1, timer.nextFireAt());
+    }
+
+    private static X509Certificate certificate(long notAfter) {
+        return certificate(notAfter, 1);
+    }
+
+    private static X509Certificate certificate(long notAfter, int serial) {
+        var cert = mock(X509Certificate.class);
+        when(cert.getNotAfter()).thenReturn(new Date(notAfter));
+        when(cert.getSerialNumber()).thenReturn(BigInteger.valueOf(serial));
+        return cert;
+    }
+}
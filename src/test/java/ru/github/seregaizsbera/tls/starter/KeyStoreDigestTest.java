@@ -0,0 +1,63 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyStoreDigestTest {
+
+    @Test
+    void sameContentSameDigest() throws Exception {
+        var cert = TestData.getInstance().realCert;
+        var ks1 = emptyKeyStore();
+        ks1.setCertificateEntry("a", cert);
+        ks1.setCertificateEntry("b", cert);
+        var ks2 = emptyKeyStore();
+        ks2.setCertificateEntry("b", cert);
+        ks2.setCertificateEntry("a", cert);
+        assertEquals(KeyStoreDigest.of(ks1), KeyStoreDigest.of(ks2));
+
+        ks2.deleteEntry("b");
+        assertNotEquals(KeyStoreDigest.of(ks1), KeyStoreDigest.of(ks2));
+        assertNotEquals(KeyStoreDigest.of(emptyKeyStore()), KeyStoreDigest.of(ks2));
+    }
+
+    @Test
+    void password() throws Exception {
+        var ks = emptyKeyStore();
+        ks.setCertificateEntry("a", TestData.getInstance().realCert);
+        var digest = KeyStoreDigest.of(ks, "secret".toCharArray());
+        assertEquals(digest, KeyStoreDigest.of(ks, "secret".toCharArray()));
+        assertNotEquals(digest, KeyStoreDigest.of(ks, "Secret".toCharArray()));
+        assertNotEquals(digest, KeyStoreDigest.of(ks, null));
+        assertNotEquals(KeyStoreDigest.of(ks, new char[0]), KeyStoreDigest.of(ks, null));
+        assertNotEquals(digest, KeyStoreDigest.of(ks));
+    }
+
+    @Test
+    void notLoaded() throws KeyStoreException {
+        var ks = KeyStore.getInstance("PKCS12");
+        assertThrows(KeyStoreException.class, () -> KeyStoreDigest.of(ks));
+    }
+
+    @Test
+    void defaultTrustStore() {
+        assertEquals(KeyStoreDigest.ofDefaultTrustStore(), KeyStoreDigest.ofDefaultTrustStore());
+        assertTrue(KeyStoreDigest.ofDefaultTrustStore().startsWith("default:"));
+    }
+
+    private static KeyStore emptyKeyStore() throws GeneralSecurityException {
+        try {
+            var ks = KeyStore.getInstance("PKCS12");
+            ks.load(null, null);
+            return ks;
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXCertPathValidatorResult;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OmniCertPathValidatorSpiTest {
+    private X509Certificate cert;
+    private CertPath certPath;
+    private PKIXParameters params;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        var keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = OmniCertPathValidatorSpiTest.class.getClassLoader().getResourceAsStream("certificates/certificate.p12")) {
+            keyStore.load(in, "1111".toCharArray());
+        }
+        cert = (X509Certificate) keyStore.getCertificate(keyStore.aliases().nextElement());
+        certPath = CertificateFactory.getInstance("X.509").generateCertPath(List.of(cert));
+        params = new PKIXParameters(Set.of(new TrustAnchor(cert, null)));
+        params.setRevocationEnabled(false);
+        params.setDate(Date.from(Instant.parse("2022-06-01T00:00:00Z")));
+    }
+
+    @Test
+    void validateWithoutContext() throws Exception {
+        var spi = new OmniCertPathValidatorSpi();
+        for (int i = 0; i < 3; i++) {
+            var result = assertInstanceOf(PKIXCertPathValidatorResult.class, spi.engineValidate(certPath, params));
+            assertEquals(cert, result.getTrustAnchor().getTrustedCert());
+        }
+    }
+
+    @Test
+    void validateWithContext() throws Exception {
+        var scope = OmniTLSContext.open(OmniConnectionInfo.NONE, 1);
+        try {
+            var result = assertInstanceOf(PKIXCertPathValidatorResult.class, new OmniCertPathValidatorSpi().engineValidate(certPath, params));
+            assertEquals(cert, result.getTrustAnchor().getTrustedCert());
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    void validateExpired() throws Exception {
+        params.setDate(Date.from(Instant.parse("2023-06-01T00:00:00Z")));
+        var spi = new OmniCertPathValidatorSpi();
+        assertThrows(CertPathValidatorException.class, () -> spi.engineValidate(certPath, params));
+        // Объект проверки возвращается в пул и после ошибки
+        params.setDate(Date.from(Instant.parse("2022-06-01T00:00:00Z")));
+        assertInstanceOf(PKIXCertPathValidatorResult.class, spi.engineValidate(certPath, params));
+    }
+}
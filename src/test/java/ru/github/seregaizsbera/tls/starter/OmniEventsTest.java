@@ -0,0 +1,67 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.nio.file.Path;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class OmniEventsTest {
+
+    @Test
+    void failedTrustCheck(@TempDir Path dir) throws Exception {
+        var name = "ru.github.seregaizsbera.tls.OmniTrustCheck";
+        var chain = new X509Certificate[]{TestData.getInstance().realCert};
+        var delegate = mock(X509ExtendedTrustManager.class);
+        doThrow(new CertificateException("rejected")).when(delegate).checkClientTrusted(chain, "RSA");
+        var trustManager = (X509ExtendedTrustManager) OmniX509ExtendedTrustManager.wrap(delegate,
+                mock(OmniSecurityNotifier.class), new OmniTlsStarterSettings());
+        List<RecordedEvent> events;
+        try (var recording = new Recording()) {
+            recording.enable(name).withThreshold(Duration.ZERO);
+            recording.start();
+            assertThrows(CertificateException.class, () -> trustManager.checkClientTrusted(chain, "RSA"));
+            recording.stop();
+            var file = dir.resolve("omni.jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+        var checks = events.stream().filter(e -> e.getEventType().getName().equals(name)).toList();
+        assertEquals(1, checks.size());
+        assertEquals("CLIENT", checks.get(0).getString("side"));
+        assertFalse(checks.get(0).getBoolean("success"));
+    }
+
+    @Test
+    void notifierDrain(@TempDir Path dir) throws Exception {
+        var name = "ru.github.seregaizsbera.tls.OmniNotifierDrain";
+        List<RecordedEvent> events;
+        try (var recording = new Recording()) {
+            recording.enable(name).withThreshold(Duration.ZERO);
+            recording.start();
+            OmniSecurityNotifierImpl.getInstance().drain(0);
+            recording.stop();
+            var file = dir.resolve("omni.jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+        var drains = events.stream().filter(e -> e.getEventType().getName().equals(name)).toList();
+        assertFalse(drains.isEmpty());
+        assertEquals(0, drains.get(0).getInt("limit"));
+        assertEquals(0, drains.get(0).getInt("drained"));
+    }
+}
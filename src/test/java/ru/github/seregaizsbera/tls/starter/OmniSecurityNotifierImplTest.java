@@ -7,9 +7,7 @@ import org.mockito.Mockito;
 import org.slf4j.event.Level;
 import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
 
-import java.lang.reflect.Field;
-import java.util.concurrent.BlockingQueue;
-
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
@@ -17,13 +15,8 @@ import static org.mockito.Mockito.when;
 class OmniSecurityNotifierImplTest {
 
     @AfterEach
-    void cleanUp() throws Exception {
-        OmniSecurityNotifierImpl instance = OmniSecurityNotifierImpl.getInstance();
-        Field field = OmniSecurityNotifierImpl.class.getDeclaredField("events");
-        field.setAccessible(true);
-        @SuppressWarnings("unchecked")
-        BlockingQueue<OmniX509EventModel> events = (BlockingQueue<OmniX509EventModel>) field.get(instance);
-        events.clear();
+    void cleanUp() {
+        OmniSecurityNotifierImpl.getInstance().drain(Integer.MAX_VALUE);
     }
 
     @Test
@@ -44,15 +37,63 @@ class OmniSecurityNotifierImplTest {
     void testIsFull() {
         OmniSecurityNotifier instance = OmniSecurityNotifierImpl.getInstance();
 
-        OmniX509EventModel mockEvent = Mockito.mock(OmniX509EventModel.class);
-        when(mockEvent.getMessage()).thenReturn("Test event");
-        when(mockEvent.getLevel()).thenReturn(Level.INFO);
-
         for(int i = 0; i < 10; i++) {
-            instance.notify(mockEvent);
+            instance.notify(new OmniX509EventModel(Level.INFO, "Test event " + i, "full"));
         }
 
         assertTrue(instance.isFull());
     }
 
+    @Test
+    @DisplayName("Проверка счетчиков принятых, отброшенных и повторных событий")
+    void testCounters() {
+        OmniSecurityNotifierImpl instance = OmniSecurityNotifierImpl.getInstance();
+        long accepted = instance.getAcceptedCount();
+        long dropped = instance.getDroppedCount();
+        long coalesced = instance.getCoalescedCount();
+
+        for (int i = 0; i < 11; i++) {
+            instance.notify(new OmniX509EventModel(Level.DEBUG, "Test counters " + i, "counters"));
+        }
+        assertEquals(10, instance.getQueueSize());
+        assertEquals(accepted + 10, instance.getAcceptedCount());
+        assertEquals(dropped + 1, instance.getDroppedCount());
+
+        assertEquals(10, instance.drain(Integer.MAX_VALUE));
+        assertEquals(0, instance.getQueueSize());
+        assertEquals(coalesced, instance.getCoalescedCount());
+    }
+
+    @Test
+    @DisplayName("Повторы события склеиваются до постановки в очередь")
+    void testCoalescing() {
+        OmniSecurityNotifierImpl instance = OmniSecurityNotifierImpl.getInstance();
+        long accepted = instance.getAcceptedCount();
+        long coalesced = instance.getCoalescedCount();
+        var event = new OmniX509EventModel(Level.DEBUG, "Test coalescing", "coalescing");
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(instance.notify(event));
+        }
+        assertEquals(1, instance.getQueueSize());
+        assertFalse(instance.isFull());
+        assertEquals(accepted + 1, instance.getAcceptedCount());
+        assertEquals(coalesced + 99, instance.getCoalescedCount());
+    }
+
+    @Test
+    @DisplayName("Повторы, отброшенные ограничителем при выводе, учитываются отдельно от склеенных")
+    void testLimited() {
+        OmniSecurityNotifierImpl instance = OmniSecurityNotifierImpl.getInstance();
+        long coalesced = instance.getCoalescedCount();
+        long limited = instance.getLimitedCount();
+
+        // События разного уровня склеиваются по разным ключам, но ограничитель считает их одним событием
+        assertTrue(instance.notify(new OmniX509EventModel(Level.DEBUG, "Test limited", "limited")));
+        assertTrue(instance.notify(new OmniX509EventModel(Level.TRACE, "Test limited", "limited")));
+        assertEquals(2, instance.drain(Integer.MAX_VALUE));
+        assertEquals(coalesced, instance.getCoalescedCount());
+        assertEquals(limited + 1, instance.getLimitedCount());
+    }
+
 }
@@ -0,0 +1,38 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OmniTLSContextTest {
+
+    @Test
+    @SuppressWarnings("try") // области используются только для закрытия
+    void scope() {
+        assertTrue(OmniTLSContext.current().isEmpty());
+        try (var outer = OmniTLSContext.open(OmniConnectionInfo.NONE, 2)) {
+            assertEquals(2, OmniTLSContext.current().orElseThrow().chainLength());
+            try (var inner = OmniTLSContext.open(OmniConnectionInfo.NONE, 3)) {
+                assertEquals(3, OmniTLSContext.current().orElseThrow().chainLength());
+            }
+            // Повторное чтение не удаляет данные
+            assertEquals(2, OmniTLSContext.current().orElseThrow().chainLength());
+            assertEquals(2, OmniTLSContext.current().orElseThrow().chainLength());
+        }
+        assertTrue(OmniTLSContext.current().isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("try") // область используется только для закрытия
+    void otherThread() throws Exception {
+        try (var scope = OmniTLSContext.open(OmniConnectionInfo.NONE, 1)) {
+            Optional<OmniTLSContext.Data> other = CompletableFuture.supplyAsync(OmniTLSContext::current).get();
+            assertTrue(other.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class OmniTlsMeterBinderTest {
+
+    @AfterEach
+    void tearDown() {
+        OmniMetrics.setRecorder(null);
+        OmniMetrics.setCertificateGauges(null);
+    }
+
+    @Test
+    void bindTo() {
+        assertEquals(0L, OmniMetrics.start());
+        var registry = new SimpleMeterRegistry();
+        new OmniTlsMeterBinder().bindTo(registry);
+        long started = OmniMetrics.start();
+        started = OmniMetrics.stop(OmniMetrics.Timing.SERVER_DELEGATE, started);
+        OmniMetrics.stop(OmniMetrics.Timing.SERVER_CHECKS, started);
+        OmniMetrics.stop(OmniMetrics.Timing.SERVER_CHECKS, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+        var delegate = registry.get("omni.tls.check").tag("side", "server").tag("phase", "delegate").timer();
+        var checks = registry.get("omni.tls.check").tag("side", "server").tag("phase", "omni").timer();
+        assertEquals(1L, delegate.count());
+        assertEquals(2L, checks.count());
+        assertEquals(0L, registry.get("omni.tls.check").tag("side", "client").tag("phase", "delegate").timer().count());
+        assertNotNull(registry.get("omni.tls.events.queue").gauge());
+        assertNotNull(registry.get("omni.tls.events").tag("result", "dropped").functionCounter());
+        assertNotNull(registry.get("omni.tls.events").tag("result", "limited").functionCounter());
+    }
+
+    @Test
+    void certificateExpiry() throws Exception {
+        var registry = new SimpleMeterRegistry();
+        new OmniTlsMeterBinder().bindTo(registry);
+        var cert = TestData.getInstance().realCert;
+        OmniMetrics.certificateGauges().observe(cert, Side.SERVER, System.currentTimeMillis());
+        var gauge = registry.get("omni.tls.certificate.expiry")
+                .tag("cn", "*.stackexchange.com")
+                .tag("side", "server")
+                .gauge();
+        assertEquals(16, gauge.getId().getTag("fingerprint").length());
+        assertEquals((cert.getNotAfter().getTime() - System.currentTimeMillis()) / 1000.0, gauge.value(), 5.0);
+    }
+}
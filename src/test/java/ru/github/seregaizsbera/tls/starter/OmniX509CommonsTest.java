@@ -11,15 +11,23 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.slf4j.event.Level;
 import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniConnectionInfo;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509CertificateModel;
 import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
 import sun.security.x509.X509CertImpl;
 
+import javax.net.ssl.SSLEngine;
 import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
 import java.math.BigInteger;
+import java.security.MessageDigest;
 import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.HexFormat;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.times;
@@ -35,6 +43,8 @@ class OmniX509CommonsTest {
     private OmniSecurityNotifier notifier;
     @Mock
     private X509CertImpl mockCert;
+    @Mock
+    private SSLEngine engine;
 
     private X500Principal principal;
 
@@ -48,10 +58,12 @@ class OmniX509CommonsTest {
         when(mockCert.getNotAfter()).thenReturn(Date.from(Instant.now().plus(55, ChronoUnit.DAYS)));
         when(mockCert.getSubjectX500Principal()).thenReturn(principal);
         when(mockCert.getSerialNumber()).thenReturn(BigInteger.ZERO);
-        OmniX509Commons.validateExpiration("type", new X509CertImpl[]{mockCert}, config, notifier, "");
+        OmniX509Commons.validateExpiration(OmniX509EventModel.Side.SERVER, new X509CertImpl[]{mockCert}, config, notifier, OmniConnectionInfo.NONE);
         verify(notifier).notify(argumentCaptor.capture());
         Assertions.assertEquals(Level.INFO, argumentCaptor.getValue().getLevel());
         Assertions.assertNotEquals(Level.WARN, argumentCaptor.getValue().getLevel());
+        Assertions.assertTrue(argumentCaptor.getValue().getMessage().startsWith("Серверный " + principal.getName() + " сертификат"));
+        Assertions.assertEquals("0", argumentCaptor.getValue().getCertificateIdentifier());
         verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
     }
 
@@ -61,10 +73,12 @@ class OmniX509CommonsTest {
         when(mockCert.getNotAfter()).thenReturn(Date.from(Instant.now().plus(20, ChronoUnit.DAYS)));
         when(mockCert.getSubjectX500Principal()).thenReturn(principal);
         when(mockCert.getSerialNumber()).thenReturn(BigInteger.ZERO);
-        OmniX509Commons.validateExpiration("type", new X509CertImpl[]{mockCert}, config, notifier, "");
+        OmniX509Commons.validateExpiration(OmniX509EventModel.Side.SERVER, new X509CertImpl[]{mockCert}, config, notifier, OmniConnectionInfo.NONE);
         verify(notifier).notify(argumentCaptor.capture());
         Assertions.assertEquals(Level.WARN, argumentCaptor.getValue().getLevel());
         Assertions.assertNotEquals(Level.INFO, argumentCaptor.getValue().getLevel());
+        Assertions.assertTrue(argumentCaptor.getValue().getMessage().startsWith("Серверный " + principal.getName() + " сертификат"));
+        Assertions.assertEquals("0", argumentCaptor.getValue().getCertificateIdentifier());
         verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
     }
 
@@ -74,17 +88,53 @@ class OmniX509CommonsTest {
         when(mockCert.getNotAfter()).thenReturn(Date.from(Instant.now().plus(5, ChronoUnit.DAYS)));
         when(mockCert.getSubjectX500Principal()).thenReturn(principal);
         when(mockCert.getSerialNumber()).thenReturn(BigInteger.ZERO);
-        OmniX509Commons.validateExpiration("type", new X509CertImpl[]{mockCert}, config, notifier, "1.2.3.4:1234");
+        when(engine.getPeerHost()).thenReturn("1.2.3.4");
+        when(engine.getPeerPort()).thenReturn(1234);
+        OmniX509Commons.validateExpiration(OmniX509EventModel.Side.SERVER, new X509CertImpl[]{mockCert}, config, notifier, OmniConnectionInfo.of(null, engine));
         verify(notifier).notify(argumentCaptor.capture());
         Assertions.assertEquals(Level.ERROR, argumentCaptor.getValue().getLevel());
+        Assertions.assertTrue(argumentCaptor.getValue().getMessage().endsWith("Соединение: 1.2.3.4:1234"));
+        Assertions.assertEquals("0", argumentCaptor.getValue().getCertificateIdentifier());
         Assertions.assertNotEquals(Level.INFO, argumentCaptor.getValue().getLevel());
         verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
     }
 
+    @Test
+    @DisplayName("Повторная проверка сертификата использует вычисленные ранее моменты пересечения порогов")
+    void getExpiration_cached() {
+        when(mockCert.getNotAfter()).thenReturn(Date.from(Instant.now().plus(200, ChronoUnit.DAYS)));
+        var settings = new OmniTlsStarterSettings();
+        var expiration = OmniX509Commons.getExpiration(mockCert, settings.expirationThresholds());
+        Assertions.assertSame(expiration, OmniX509Commons.getExpiration(mockCert, settings.expirationThresholds()));
+        verify(mockCert, times(1)).getNotAfter();
+        settings.setInfoLevelDays(300);
+        var recomputed = OmniX509Commons.getExpiration(mockCert, settings.expirationThresholds());
+        Assertions.assertNotSame(expiration, recomputed);
+        Assertions.assertFalse(expiration.isBelowThreshold(System.currentTimeMillis()));
+        Assertions.assertTrue(recomputed.isBelowThreshold(System.currentTimeMillis()));
+        verify(mockCert, times(2)).getNotAfter();
+    }
+
     @Test
     @SuppressWarnings("SpellCheckingInspection")
     void extractSAN() throws CertificateException {
         var result = OmniX509Commons.extractSAN(TestData.getInstance().realCert);
         Assertions.assertEquals(" (*.askubuntu.com,*.blogoverflow.com,*.mathoverflow.net...)", result);
     }
+
+    @Test
+    @DisplayName("Сведения о сертификате вычисляются один раз для сертификатов с одинаковым содержимым")
+    void certificateModel() throws Exception {
+        var cert = TestData.getInstance().realCert;
+        var copy = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(cert.getEncoded()));
+        var model = OmniX509CertificateModel.of(cert);
+        Assertions.assertSame(model, OmniX509CertificateModel.of(copy));
+        var expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded()));
+        Assertions.assertEquals(expected, model.getFingerprint());
+        Assertions.assertEquals("CN=*.stackexchange.com", model.getSubject());
+        Assertions.assertEquals(" (*.askubuntu.com,*.blogoverflow.com,*.mathoverflow.net...)", model.getSubjectAlternativeNames());
+        var event = new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                copy, 1L, OmniConnectionInfo.NONE, null, e -> "");
+        Assertions.assertEquals(expected, event.getCertificateIdentifier());
+    }
 }
@@ -2,6 +2,8 @@ package ru.github.seregaizsbera.tls.starter;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
@@ -13,7 +15,6 @@ import sun.security.x509.X509CertImpl;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.X509ExtendedKeyManager;
-import java.math.BigInteger;
 import java.net.Socket;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -31,6 +32,7 @@ import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
@@ -53,6 +55,8 @@ class OmniX509ExtendedKeyManagerTest {
     private OmniTlsStarterSettings settings = new OmniTlsStarterSettings();
     @InjectMocks
     private OmniX509ExtendedKeyManager manager;
+    @Captor
+    private ArgumentCaptor<OmniX509EventModel> eventCaptor;
 
     @Test
     void getClientAliases() {
@@ -95,14 +99,14 @@ class OmniX509ExtendedKeyManagerTest {
     void getCertificateChain_notFull_and_alert() throws CertificateException {
         when(implCert.getNotAfter()).thenReturn(Date.from(Instant.now()));
         when(implCert.getSubjectX500Principal()).thenReturn(TestData.getInstance().realCert.getSubjectX500Principal());
-        when(implCert.getSerialNumber()).thenReturn(BigInteger.ZERO);
         when(keyManager.getCertificateChain(any())).thenReturn(new X509CertImpl[]{implCert});
         when(notifier.isFull()).thenReturn(false);
 
         X509Certificate[] aliases = manager.getCertificateChain(ALIAS);
         assertEquals(1, aliases.length);
 
-        verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
+        verify(notifier, times(1)).notify(eventCaptor.capture());
+        assertTrue(eventCaptor.getValue().getMessage().startsWith("KeyManager CN=*.stackexchange.com сертификат"));
     }
 
     @Test
@@ -118,6 +122,53 @@ class OmniX509ExtendedKeyManagerTest {
         verify(notifier, times(0)).notify(any(OmniX509EventModel.class));
     }
 
+    @Test
+    void getCertificateChain_snapshot() {
+        when(implCert.getNotAfter()).thenReturn(Date.from(Instant.now().plus(5L, ChronoUnit.DAYS).minus(1L, ChronoUnit.HOURS)));
+        when(keyManager.getCertificateChain(any())).thenReturn(new X509CertImpl[]{implCert});
+        when(notifier.isFull()).thenReturn(false);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, manager.getCertificateChain(ALIAS).length);
+        }
+
+        // Результат проверки запоминается до смены количества дней
+        verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
+        verify(notifier, times(1)).isFull();
+        verify(keyManager, times(10)).getCertificateChain(ALIAS);
+    }
+
+    @Test
+    void getCertificateChain_uniqueAliases() {
+        when(implCert.getNotAfter()).thenReturn(Date.from(Instant.now().plus(5L, ChronoUnit.DAYS).minus(1L, ChronoUnit.HOURS)));
+        when(keyManager.getCertificateChain(any())).thenReturn(new X509CertImpl[]{implCert});
+        when(notifier.isFull()).thenReturn(false);
+
+        // Стандартный менеджер ключей PKIX возвращает новый псевдоним при каждом выборе
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(1, manager.getCertificateChain(i + ".0." + ALIAS).length);
+        }
+
+        verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
+        verify(notifier, times(1)).isFull();
+    }
+
+    @Test
+    void validateAliases() {
+        when(implCert.getNotAfter()).thenReturn(Date.from(Instant.now().plus(5L, ChronoUnit.DAYS).minus(1L, ChronoUnit.HOURS)));
+        when(keyManager.getServerAliases(any(), any())).thenReturn(new String[]{ALIAS});
+        when(keyManager.getCertificateChain(ALIAS)).thenReturn(new X509CertImpl[]{implCert});
+        when(notifier.isFull()).thenReturn(false);
+
+        manager.validateAliases();
+        verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
+
+        // При установлении соединения проверка не повторяется
+        manager.getCertificateChain(ALIAS);
+        verify(notifier, times(1)).notify(any(OmniX509EventModel.class));
+        verify(keyManager, times(2)).getCertificateChain(ALIAS);
+    }
+
     @Test
     void getPrivateKey() {
         manager.getPrivateKey(ALIAS);
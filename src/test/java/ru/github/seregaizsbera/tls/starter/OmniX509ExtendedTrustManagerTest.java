@@ -10,8 +10,10 @@ import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
 
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.GeneralSecurityException;
@@ -22,14 +24,23 @@ import java.security.Provider;
 import java.security.Security;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class OmniX509ExtendedTrustManagerTest {
@@ -43,6 +54,10 @@ class OmniX509ExtendedTrustManagerTest {
     private OmniSecurityNotifier notifier;
     @Spy
     private OmniTlsStarterSettings settings = new OmniTlsStarterSettings();
+    @Mock
+    private X509ExtendedTrustManager delegate;
+    @Mock
+    private SSLEngine engine;
 
     @BeforeEach
     public void setUp() throws GeneralSecurityException, IOException {
@@ -107,6 +122,36 @@ class OmniX509ExtendedTrustManagerTest {
 
     }
 
+    @Test
+    void deferredEngineValidation() throws Exception {
+        settings.setDeferredEngineValidation(true);
+        settings.setInfoLevelDays(1_000_000);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        when(notifier.notify(any())).thenAnswer(invocation -> threads.add(Thread.currentThread()));
+        var trustManager = (OmniX509ExtendedTrustManager) OmniX509ExtendedTrustManager.wrap(delegate, notifier, settings);
+
+        trustManager.checkClientTrusted(CHAIN, AUTH_TYPE, engine);
+        verify(delegate).checkClientTrusted(CHAIN, AUTH_TYPE, engine);
+        verify(notifier, timeout(5_000)).notify(any());
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    void verifiedChainCache() throws Exception {
+        settings.setVerifiedChainCache(true);
+        when(notifier.isFull()).thenReturn(true);
+        var cert = mock(X509Certificate.class);
+        when(cert.getNotAfter()).thenReturn(new Date(System.currentTimeMillis() + 86_400_000L));
+        var chain = new X509Certificate[]{cert};
+        var trustManager = (OmniX509ExtendedTrustManager) OmniX509ExtendedTrustManager.wrap(delegate, notifier, settings);
+
+        trustManager.checkServerTrusted(chain, AUTH_TYPE);
+        trustManager.checkServerTrusted(chain, AUTH_TYPE);
+        verify(delegate, times(1)).checkServerTrusted(chain, AUTH_TYPE);
+        trustManager.checkServerTrusted(chain, "EC");
+        verify(delegate, times(1)).checkServerTrusted(chain, "EC");
+    }
+
     @Test
     void wrap() {
         Arrays.stream(Security.getProviders())
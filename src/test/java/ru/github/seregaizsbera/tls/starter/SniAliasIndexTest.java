@@ -0,0 +1,125 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.security.auth.x500.X500Principal;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SniAliasIndexTest {
+    private static final String ALIAS = "0.stackexchange";
+    private static final String[] KEY_TYPES = {"RSA", "EC"};
+    private static final String SERVER_AUTH = "1.3.6.1.5.5.7.3.1";
+    private static final long NOW = Instant.parse("2022-06-01T00:00:00Z").toEpochMilli();
+    @Mock
+    private X509ExtendedKeyManager keyManager;
+    @Mock
+    private ExtendedSSLSession session;
+    private SniAliasIndex index;
+
+    @BeforeEach
+    void init() throws CertificateException {
+        when(keyManager.getServerAliases("RSA", null)).thenReturn(new String[]{ALIAS});
+        when(keyManager.getCertificateChain(ALIAS)).thenReturn(new X509Certificate[]{TestData.getInstance().realCert});
+        index = SniAliasIndex.build(keyManager, KEY_TYPES);
+    }
+
+    @Test
+    @SuppressWarnings("SpellCheckingInspection")
+    void choose() {
+        assertEquals(ALIAS, index.choose("RSA", session("stackoverflow.com"), NOW));
+        assertEquals(ALIAS, index.choose("RSA", session("meta.stackoverflow.com"), NOW));
+        assertNull(index.choose("RSA", session("a.b.stackoverflow.com"), NOW));
+        assertNull(index.choose("RSA", session("example.com"), NOW));
+        assertNull(index.choose("EC", session("stackoverflow.com"), NOW));
+    }
+
+    @Test
+    void chooseExpired() {
+        long expired = Instant.parse("2022-08-07T00:00:00Z").toEpochMilli();
+        assertNull(index.choose("RSA", session("stackoverflow.com"), expired));
+    }
+
+    @Test
+    @SuppressWarnings("SpellCheckingInspection")
+    void chooseBySession() {
+        when(session.getRequestedServerNames()).thenReturn(List.of(new SNIHostName("SuperUser.com")));
+        when(session.getPeerSupportedSignatureAlgorithms()).thenReturn(new String[]{"SHA256withECDSA", "SHA256withRSA"});
+        assertEquals(ALIAS, index.choose("RSA", session, NOW));
+        assertNull(index.choose("RSA", (SSLSession) null, NOW));
+    }
+
+    @Test
+    void chooseUnsupportedChainAlgorithm() {
+        when(session.getRequestedServerNames()).thenReturn(List.of(new SNIHostName("stackoverflow.com")));
+        when(session.getPeerSupportedSignatureAlgorithms()).thenReturn(new String[]{"SHA256withECDSA", "RSASSA-PSS"}, new String[0]);
+        assertNull(index.choose("RSA", session, NOW));
+        assertNull(index.choose("RSA", session, NOW));
+    }
+
+    @Test
+    void chooseEc() throws Exception {
+        var generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        var cert = Mockito.mock(X509Certificate.class);
+        when(cert.getExtendedKeyUsage()).thenReturn(List.of(SERVER_AUTH));
+        when(cert.getPublicKey()).thenReturn(generator.generateKeyPair().getPublic());
+        when(cert.getNotBefore()).thenReturn(new Date(NOW - 1L));
+        when(cert.getNotAfter()).thenReturn(new Date(NOW + 1L));
+        when(cert.getSigAlgName()).thenReturn("SHA256withECDSA");
+        when(cert.getSubjectX500Principal()).thenReturn(new X500Principal("CN=ec.example.com"));
+        var ecKeyManager = Mockito.mock(X509ExtendedKeyManager.class);
+        when(ecKeyManager.getServerAliases("EC", null)).thenReturn(new String[]{"ec"});
+        when(ecKeyManager.getCertificateChain("ec")).thenReturn(new X509Certificate[]{cert});
+        var ecIndex = SniAliasIndex.build(ecKeyManager, new String[]{"EC"});
+        when(session.getRequestedServerNames()).thenReturn(List.of(new SNIHostName("ec.example.com")));
+        when(session.getPeerSupportedSignatureAlgorithms()).thenReturn(new String[]{"SHA256withECDSA"}, new String[]{"SHA256withECDSA"},
+                new String[]{"SHA384withECDSA"});
+        when(session.getProtocol()).thenReturn("TLSv1.3", "TLSv1.2", "TLSv1.3");
+        assertEquals("ec", ecIndex.choose("EC", session, NOW));
+        // В TLS 1.2 кривую ограничивает supported_groups, выбор передается стандартному менеджеру
+        assertNull(ecIndex.choose("EC", session, NOW));
+        assertNull(ecIndex.choose("EC", session, NOW));
+    }
+
+    @Test
+    void keyUsageWithoutDigitalSignature() throws Exception {
+        var cert = Mockito.mock(X509Certificate.class);
+        when(cert.getExtendedKeyUsage()).thenReturn(List.of(SERVER_AUTH));
+        when(cert.getKeyUsage()).thenReturn(new boolean[]{false, false, true});
+        var rsaKeyManager = Mockito.mock(X509ExtendedKeyManager.class);
+        when(rsaKeyManager.getServerAliases("RSA", null)).thenReturn(new String[]{"rsa"});
+        when(rsaKeyManager.getCertificateChain("rsa")).thenReturn(new X509Certificate[]{cert});
+        assertNull(SniAliasIndex.build(rsaKeyManager, new String[]{"RSA"}).choose("RSA", session("rsa.example.com"), NOW));
+    }
+
+    /**
+     * Сессия с запрошенным именем узла, клиент которой поддерживает алгоритмы подписи RSA.
+     * Алгоритмы запрашиваются, только если в индексе найден сертификат.
+     */
+    private static SSLSession session(String hostName) {
+        var result = Mockito.mock(ExtendedSSLSession.class);
+        when(result.getRequestedServerNames()).thenReturn(List.of(new SNIHostName(hostName)));
+        lenient().when(result.getPeerSupportedSignatureAlgorithms()).thenReturn(new String[]{"SHA256withRSA"});
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+
+import javax.net.ssl.X509TrustManager;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStore;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreReloaderTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void cleanUp() {
+        OmniTlsStarterSettings.getInstance().setReloadStores(List.of());
+        OmniSecurityNotifierImpl.getInstance().drain(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void reloadTrustStore() throws Exception {
+        var file = dir.resolve("truststore.p12");
+        var ks = store(file, true);
+        var reloadStore = new OmniTlsStarterSettings.ReloadableStore();
+        reloadStore.setPath(file.toString());
+        reloadStore.setPassword(new String(PASSWORD));
+        OmniTlsStarterSettings.getInstance().setReloadStores(List.of(reloadStore));
+
+        var spi = new OmniTrustManagerFactorySpi();
+        spi.engineInit(ks);
+        var trustManager = (X509TrustManager) spi.engineGetTrustManagers()[0];
+        awaitFirstPoll();
+        assertFalse(StoreReloader.unmatched().contains(trustManager));
+        assertEquals(1, trustManager.getAcceptedIssuers().length);
+        assertEquals(0, StoreReloader.poll());
+
+        store(file, false);
+        assertEquals(1, StoreReloader.poll());
+        assertEquals(0, trustManager.getAcceptedIssuers().length);
+        assertEquals(0, StoreReloader.poll());
+    }
+
+    @Test
+    void unrelatedStoreIsNotReloaded() throws Exception {
+        var file = dir.resolve("other.p12");
+        store(file, true);
+        var reloadStore = new OmniTlsStarterSettings.ReloadableStore();
+        reloadStore.setPath(file.toString());
+        reloadStore.setPassword(new String(PASSWORD));
+        OmniTlsStarterSettings.getInstance().setReloadStores(List.of(reloadStore));
+
+        var spi = new OmniTrustManagerFactorySpi();
+        var ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        spi.engineInit(ks);
+        var trustManager = (X509TrustManager) spi.engineGetTrustManagers()[0];
+        var issuers = trustManager.getAcceptedIssuers();
+        awaitFirstPoll();
+        assertTrue(StoreReloader.unmatched().contains(trustManager));
+
+        store(file, false);
+        assertEquals(0, StoreReloader.poll());
+        assertEquals(issuers.length, trustManager.getAcceptedIssuers().length);
+        assertSame(OmniX509ExtendedTrustManager.class, trustManager.getClass());
+    }
+
+    @Test
+    void runtimeExceptionDoesNotStopPolling() throws Exception {
+        var file = dir.resolve("truststore.p12");
+        var ks = store(file, true);
+        var broken = new OmniTlsStarterSettings.ReloadableStore();
+        broken.setPath(dir.resolve("broken.p12").toString());
+        // KeyStore.getInstance(null) выбрасывает NullPointerException
+        broken.setType(null);
+        var reloadStore = new OmniTlsStarterSettings.ReloadableStore();
+        reloadStore.setPath(file.toString());
+        reloadStore.setPassword(new String(PASSWORD));
+        OmniTlsStarterSettings.getInstance().setReloadStores(List.of(broken, reloadStore));
+
+        var spi = new OmniTrustManagerFactorySpi();
+        spi.engineInit(ks);
+        var trustManager = (X509TrustManager) spi.engineGetTrustManagers()[0];
+        awaitFirstPoll();
+        assertEquals(1, trustManager.getAcceptedIssuers().length);
+
+        store(file, false);
+        assertEquals(1, StoreReloader.poll());
+        assertEquals(0, trustManager.getAcceptedIssuers().length);
+    }
+
+    /**
+     * Дожидается опроса, запущенного при регистрации. Планировщик хранилищ выполняет задачи по очереди в одном потоке.
+     */
+    private static void awaitFirstPoll() throws Exception {
+        OmniExecutors.stores().submit(() -> { }).get();
+    }
+
+    private static KeyStore store(Path file, boolean withCertificate) throws Exception {
+        var ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        if (withCertificate) {
+            ks.setCertificateEntry("cert", TestData.getInstance().realCert);
+        }
+        var tmp = Files.createTempFile(file.getParent(), "store", ".tmp");
+        try (var out = new FileOutputStream(tmp.toFile())) {
+            ks.store(out, PASSWORD);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        return ks;
+    }
+}
@@ -0,0 +1,62 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.github.seregaizsbera.tls.starter.configuration.OmniTlsStarterSettings;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Kind;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StoreScannerTest {
+    @Mock
+    private OmniSecurityNotifier notifier;
+    @Mock
+    private X509ExtendedTrustManager delegate;
+
+    @Test
+    void scanRegistered() throws Exception {
+        var cert = TestData.getInstance().realCert;
+        when(delegate.getAcceptedIssuers()).thenReturn(new X509Certificate[]{cert, cert});
+        var trustManager = (OmniX509ExtendedTrustManager) OmniX509ExtendedTrustManager.wrap(delegate, notifier, new OmniTlsStarterSettings());
+        StoreScanner.register(trustManager);
+
+        // Одинаковые сертификаты проверяются один раз
+        assertEquals(1, StoreScanner.scan(notifier, new OmniTlsStarterSettings()));
+        var captor = ArgumentCaptor.forClass(OmniX509EventModel.class);
+        verify(notifier).notify(captor.capture());
+        assertEquals(Kind.EXPIRATION, captor.getValue().getKind());
+        assertEquals(Side.TRUST_STORE, captor.getValue().getSide());
+    }
+
+    @Test
+    void scanParallel() throws Exception {
+        var certs = new X509Certificate[StoreScanner.PARALLEL_THRESHOLD * 4 + 1];
+        Arrays.fill(certs, TestData.getInstance().realCert);
+        StoreScanner.scan(certs, notifier, new OmniTlsStarterSettings());
+        verify(notifier, times(certs.length)).notify(any());
+    }
+
+    @Test
+    void scanFull() throws Exception {
+        when(notifier.isFull()).thenReturn(true);
+        var certs = new X509Certificate[StoreScanner.PARALLEL_THRESHOLD * 2];
+        Arrays.fill(certs, TestData.getInstance().realCert);
+        StoreScanner.scan(certs, notifier, new OmniTlsStarterSettings());
+        verify(notifier, never()).notify(any());
+    }
+}
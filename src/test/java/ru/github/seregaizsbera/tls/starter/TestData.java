@@ -1,11 +1,28 @@
 package ru.github.seregaizsbera.tls.starter;
 
+import sun.security.x509.AlgorithmId;
+import sun.security.x509.CertificateAlgorithmId;
+import sun.security.x509.CertificateSerialNumber;
+import sun.security.x509.CertificateValidity;
+import sun.security.x509.CertificateVersion;
+import sun.security.x509.CertificateX509Key;
+import sun.security.x509.X500Name;
 import sun.security.x509.X509CertImpl;
+import sun.security.x509.X509CertInfo;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Содержит общие данные для тестов.
@@ -78,4 +95,43 @@ class TestData {
         var realCert = (X509CertImpl) cf.generateCertificate(new ByteArrayInputStream(certData));
         return new TestData(realCert);
     }
+
+    /**
+     * Создает хранилище PKCS12 с ключом RSA и самоподписанным сертификатом, срок действия которого начался сутки назад.
+     *
+     * @param alias    псевдоним ключа
+     * @param cn       имя субъекта
+     * @param days     срок действия сертификата в днях, считая от текущего момента
+     * @param password пароль хранилища и ключа
+     * @return хранилище
+     */
+    static KeyStore generateKeyStore(String alias, String cn, int days, char[] password) throws GeneralSecurityException, IOException {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        var keyPair = generator.generateKeyPair();
+        long now = System.currentTimeMillis();
+        var name = new X500Name("CN=" + cn);
+        var info = new X509CertInfo();
+        info.set(X509CertInfo.VERSION, new CertificateVersion(CertificateVersion.V3));
+        info.set(X509CertInfo.SERIAL_NUMBER, new CertificateSerialNumber(BigInteger.valueOf(now)));
+        info.set(X509CertInfo.ALGORITHM_ID, new CertificateAlgorithmId(AlgorithmId.get("SHA256withRSA")));
+        info.set(X509CertInfo.SUBJECT, name);
+        info.set(X509CertInfo.ISSUER, name);
+        info.set(X509CertInfo.KEY, new CertificateX509Key(keyPair.getPublic()));
+        info.set(X509CertInfo.VALIDITY, new CertificateValidity(new Date(now - TimeUnit.DAYS.toMillis(1)),
+                new Date(now + TimeUnit.DAYS.toMillis(days))));
+        var cert = new X509CertImpl(info);
+        cert.sign(keyPair.getPrivate(), "SHA256withRSA");
+        var ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        ks.setKeyEntry(alias, keyPair.getPrivate(), password, new Certificate[]{cert});
+        return ks;
+    }
+
+    /**
+     * @return сертификат псевдонима хранилища
+     */
+    static X509Certificate certificate(KeyStore ks, String alias) throws GeneralSecurityException {
+        return (X509Certificate) ks.getCertificate(alias);
+    }
 }
@@ -0,0 +1,95 @@
+package ru.github.seregaizsbera.tls.starter;
+
+import org.junit.jupiter.api.Test;
+import ru.github.seregaizsbera.tls.starter.models.OmniX509EventModel.Side;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.security.AlgorithmConstraints;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VerifiedChainCacheTest {
+    private static final long HOUR = 3_600_000L;
+
+    @Test
+    void keyOf() throws Exception {
+        var chain = new X509Certificate[]{TestData.getInstance().realCert};
+        var key = VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null, null);
+        assertEquals(key, VerifiedChainCache.keyOf(Side.SERVER, chain.clone(), "RSA", null, null));
+        assertNotEquals(key, VerifiedChainCache.keyOf(Side.CLIENT, chain, "RSA", null, null));
+        assertNotEquals(key, VerifiedChainCache.keyOf(Side.SERVER, chain, "ECDHE_RSA", null, null));
+        assertNull(VerifiedChainCache.keyOf(Side.SERVER, new X509Certificate[0], "RSA", null, null));
+        assertNull(VerifiedChainCache.keyOf(Side.SERVER, null, "RSA", null, null));
+        assertNull(VerifiedChainCache.keyOf(Side.SERVER, chain, null, null, null));
+    }
+
+    @Test
+    void keyOfEngine() throws Exception {
+        var chain = new X509Certificate[]{TestData.getInstance().realCert};
+        var sni = List.<SNIServerName>of(new SNIHostName("a.example.com"));
+        var key = VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null, engine("HTTPS", null, "a.example.com", sni));
+        assertEquals(key, VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null,
+                engine("HTTPS", null, "a.example.com", sni)));
+        assertNotEquals(key, VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null,
+                engine("HTTPS", null, "a.example.com", List.of(new SNIHostName("b.example.com")))));
+        assertNotEquals(key, VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null,
+                engine("HTTPS", null, "b.example.com", sni)));
+        assertNotEquals(key, VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null,
+                engine(null, null, "a.example.com", sni)));
+        assertNotEquals(key, VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null,
+                engine("HTTPS", mock(AlgorithmConstraints.class), "a.example.com", sni)));
+    }
+
+    private static SSLEngine engine(String identificationAlgorithm, AlgorithmConstraints constraints, String peerHost,
+                                    List<SNIServerName> serverNames) {
+        var parameters = new SSLParameters();
+        parameters.setEndpointIdentificationAlgorithm(identificationAlgorithm);
+        parameters.setAlgorithmConstraints(constraints);
+        var session = mock(ExtendedSSLSession.class);
+        when(session.getPeerHost()).thenReturn(peerHost);
+        when(session.getProtocol()).thenReturn("TLSv1.3");
+        when(session.getRequestedServerNames()).thenReturn(serverNames);
+        when(session.getLocalSupportedSignatureAlgorithms()).thenReturn(new String[]{"SHA256withRSA"});
+        var engine = mock(SSLEngine.class);
+        when(engine.getSSLParameters()).thenReturn(parameters);
+        when(engine.getHandshakeSession()).thenReturn(session);
+        return engine;
+    }
+
+    @Test
+    void expiration() throws Exception {
+        var cert = TestData.getInstance().realCert;
+        var chain = new X509Certificate[]{cert};
+        var key = VerifiedChainCache.keyOf(Side.SERVER, chain, "RSA", null, null);
+        var cache = new VerifiedChainCache();
+        long now = Instant.parse("2022-06-01T00:00:00Z").toEpochMilli();
+
+        cache.put(key, chain, now, HOUR);
+        assertTrue(cache.isVerified(key, now + HOUR - 1));
+        assertFalse(cache.isVerified(key, now + HOUR));
+        assertEquals(0, cache.size());
+
+        // Срок действия записи ограничен сроком действия сертификата
+        long notAfter = cert.getNotAfter().getTime();
+        cache.put(key, chain, notAfter - HOUR, 24 * HOUR);
+        assertTrue(cache.isVerified(key, notAfter - 1));
+        assertFalse(cache.isVerified(key, notAfter));
+
+        // Истекшая цепочка не запоминается
+        cache.put(key, chain, notAfter, HOUR);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,63 @@
+package ru.github.seregaizsbera.tls.starter.models;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.net.ssl.SSLEngine;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OmniConnectionInfoTest {
+    @Mock
+    private SSLEngine engine;
+
+    @Test
+    void none() {
+        Assertions.assertSame(OmniConnectionInfo.NONE, OmniConnectionInfo.of(null, null));
+        Assertions.assertTrue(OmniConnectionInfo.NONE.isEmpty());
+        Assertions.assertEquals("", OmniConnectionInfo.NONE.toString());
+        Assertions.assertEquals("", OmniConnectionInfo.NONE.getPeerHost());
+    }
+
+    @Test
+    void engine() {
+        when(engine.getPeerHost()).thenReturn("example.com");
+        when(engine.getPeerPort()).thenReturn(443);
+        var info = OmniConnectionInfo.of(null, engine);
+        Assertions.assertFalse(info.isEmpty());
+        Assertions.assertEquals("example.com:443", info.toString());
+        Assertions.assertSame(info.toString(), info.toString());
+        Assertions.assertEquals("example.com", info.getPeerHost());
+    }
+
+    @Test
+    void socket() {
+        var info = OmniConnectionInfo.of(new Socket(), null);
+        Assertions.assertFalse(info.isEmpty());
+        Assertions.assertEquals("0.0.0.0:-1::0", info.toString());
+        Assertions.assertEquals("", info.getPeerHost());
+    }
+
+    @Test
+    void socketAddressesCapturedEagerly() throws Exception {
+        var socket = mock(Socket.class);
+        when(socket.getLocalAddress()).thenReturn(InetAddress.getByName("10.0.0.1"));
+        when(socket.getInetAddress()).thenReturn(InetAddress.getByName("10.0.0.2"));
+        when(socket.getLocalPort()).thenReturn(50000);
+        when(socket.getPort()).thenReturn(443);
+        var info = OmniConnectionInfo.of(socket, null);
+        // Текст формируется без обращения к сокету, который к этому моменту может быть закрыт
+        verify(socket).getLocalAddress();
+        verifyNoMoreInteractions(socket);
+        Assertions.assertEquals("10.0.0.1:50000:10.0.0.2:443", info.toString());
+    }
+}
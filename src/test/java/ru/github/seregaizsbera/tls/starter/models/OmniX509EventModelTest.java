@@ -2,8 +2,15 @@ package ru.github.seregaizsbera.tls.starter.models;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import org.slf4j.event.Level;
 
+import javax.net.ssl.SSLEngine;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.when;
+
 class OmniX509EventModelTest {
     private final OmniX509EventModel omniX509EventModel = new OmniX509EventModel(Level.ERROR, "Some message", "0");
 
@@ -15,5 +22,64 @@ class OmniX509EventModelTest {
     @Test
     void getMessage() {
         Assertions.assertEquals("Some message", omniX509EventModel.getMessage());
+        Assertions.assertEquals("0", omniX509EventModel.getCertificateIdentifier());
+    }
+
+    @Test
+    void getMessageIsFormattedOnce() {
+        var calls = new AtomicInteger();
+        var event = new OmniX509EventModel(Level.WARN, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.CLIENT,
+                null, 10L, null, null, e -> e.getSide().getTitle() + " " + e.getDays() + " " + calls.incrementAndGet());
+        Assertions.assertEquals(0, calls.get());
+        Assertions.assertEquals("Клиентский 10 1", event.getMessage());
+        Assertions.assertEquals("Клиентский 10 1", event.getMessage());
+        Assertions.assertEquals(1, calls.get());
+        Assertions.assertSame(OmniConnectionInfo.NONE, event.getConnectionInfo());
+        Assertions.assertEquals("", event.getCertificateIdentifier());
+    }
+
+    @Test
+    void getEventKey() {
+        var formatted = new AtomicInteger();
+        OmniX509EventModel.Formatter formatter = e -> "text " + formatted.incrementAndGet();
+        var event1 = new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                null, 10L, OmniConnectionInfo.NONE, null, formatter);
+        var event2 = new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                null, 10L, OmniConnectionInfo.NONE, null, formatter);
+        var event3 = new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                null, 9L, OmniConnectionInfo.NONE, null, formatter);
+        Assertions.assertEquals(event1.getEventKey(), event2.getEventKey());
+        Assertions.assertNotEquals(event1.getEventKey(), event3.getEventKey());
+        Assertions.assertEquals(0, formatted.get());
+    }
+
+    @Test
+    void getEventKeyIgnoresPorts() {
+        var engine = Mockito.mock(SSLEngine.class);
+        when(engine.getPeerHost()).thenReturn("example.com", "example.com", "example.org");
+        when(engine.getPeerPort()).thenReturn(1000, 1001, 1002);
+        OmniX509EventModel.Formatter formatter = e -> "text";
+        var event1 = new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                null, 10L, OmniConnectionInfo.of(null, engine), null, formatter);
+        var event2 = new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                null, 10L, OmniConnectionInfo.of(null, engine), null, formatter);
+        var event3 = new OmniX509EventModel(Level.INFO, OmniX509EventModel.Kind.EXPIRATION, OmniX509EventModel.Side.SERVER,
+                null, 10L, OmniConnectionInfo.of(null, engine), null, formatter);
+        Assertions.assertEquals(event1.getEventKey(), event2.getEventKey());
+        Assertions.assertNotEquals(event1.getEventKey(), event3.getEventKey());
+    }
+
+    @Test
+    void getMessageWithOccurrences() {
+        var engine = Mockito.mock(SSLEngine.class);
+        when(engine.getPeerHost()).thenReturn("example.com");
+        when(engine.getPeerPort()).thenReturn(1000, 1001);
+        var source = new OmniX509EventModel(Level.INFO, "text", "0");
+        var event = source.withOccurrences(5L, List.of(OmniConnectionInfo.of(null, engine), OmniConnectionInfo.of(null, engine)));
+        Assertions.assertEquals(String.format("text%n Повторов за период: 5, соединения: example.com:1000, example.com:1001"),
+                event.getMessage());
+        Assertions.assertEquals("text", source.getMessage());
+        Assertions.assertEquals("text", event.getEventKey());
+        Assertions.assertEquals("0", event.getCertificateIdentifier());
     }
 }